@@ -0,0 +1,141 @@
+package com.ustrzycki.unfoldingmaps.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ustrzycki.unfoldingmaps.earthquakes.CityMarker;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import parsing.ParseFeed;
+
+/**
+ * The data of the benchmarks: the files of the data directory (the
+ * system property data.dir, "data" by default) and scale-ups of the week
+ * feed.
+ *
+ * A feed scaled up n times holds every entry of data/2.5_week.atom n
+ * times; every copy but the first gets its own id and is moved by up to
+ * JITTER degrees, so the copies are neither duplicates nor all classified
+ * the same way. The scaled feeds are written to the temporary directory
+ * once and reused by later runs.
+ *
+ * @author DariuszUstrzycki
+ */
+public final class BenchmarkData {
+
+	/** The week feed of the data directory */
+	public static final String FEED_FILE = "2.5_week.atom";
+
+	private static final float JITTER = 1;
+
+	private static final Pattern ID = Pattern.compile("<id>([^<]*)</id>");
+	private static final Pattern POINT = Pattern.compile("<georss:point>(\\S+) (\\S+)</georss:point>");
+
+	private BenchmarkData() {
+	}
+
+	public static File dataDirectory() {
+		return new File(System.getProperty("data.dir", "data"));
+	}
+
+	/**
+	 * Returns the week feed scaled up the given number of times.
+	 */
+	public static File scaledFeed(int scale) throws IOException {
+		File original = new File(dataDirectory(), FEED_FILE);
+		if (scale == 1) {
+			return original;
+		}
+
+		File scaled = new File(System.getProperty("java.io.tmpdir"), "quakes-" + scale + "x-" + original.length() + ".atom");
+		if (scaled.isFile()) {
+			return scaled;
+		}
+
+		String feed = new String(Files.readAllBytes(original.toPath()), UTF_8);
+		int firstEntry = feed.indexOf("<entry>");
+		int end = feed.lastIndexOf("</entry>") + "</entry>".length();
+		String[] entries = feed.substring(firstEntry, end).split("(?=<entry>)");
+
+		// written to a temporary file first, so a crash leaves no half feed
+		File partial = new File(scaled.getPath() + ".tmp");
+		Random random = new Random(scale);
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(partial.toPath()), UTF_8))) {
+			out.write(feed, 0, firstEntry);
+			for (int copy = 0; copy < scale; copy++) {
+				for (String entry : entries) {
+					out.write(copy == 0 ? entry : moved(entry, copy, random));
+				}
+			}
+			out.write(feed.substring(end));
+		}
+		if (!partial.renameTo(scaled)) {
+			throw new IOException("Cannot write " + scaled);
+		}
+		return scaled;
+	}
+
+	/**
+	 * Parses the week feed scaled up the given number of times.
+	 */
+	public static List<PointFeature> features(int scale) throws IOException {
+		try (InputStream input = new BufferedInputStream(new FileInputStream(scaledFeed(scale)))) {
+			return ParseFeed.parseEarthquake(input);
+		}
+	}
+
+	public static List<Marker> countryMarkers() throws IOException {
+		return MapUtils.createSimpleMarkers(GeoJSONReader.loadDataFromJSON(null, read("countries-geo.json")));
+	}
+
+	public static List<Marker> cityMarkers() throws IOException {
+		List<Marker> cities = new ArrayList<Marker>();
+		for (Feature city : GeoJSONReader.loadDataFromJSON(null, read("city-data.json"))) {
+			cities.add(new CityMarker(city));
+		}
+		return cities;
+	}
+
+	private static String read(String file) throws IOException {
+		return new String(Files.readAllBytes(new File(dataDirectory(), file).toPath()), UTF_8);
+	}
+
+	// the entry with a new id and a point moved at random
+	private static String moved(String entry, int copy, Random random) {
+		Matcher id = ID.matcher(entry);
+		entry = id.find() ? id.replaceFirst(Matcher.quoteReplacement("<id>" + id.group(1) + "-" + copy + "</id>"))
+				: entry;
+
+		Matcher point = POINT.matcher(entry);
+		if (!point.find()) {
+			return entry;
+		}
+		float lat = Math.max(-90, Math.min(90, Float.parseFloat(point.group(1)) + jitter(random)));
+		float lon = Float.parseFloat(point.group(2)) + jitter(random);
+		lon = lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+		return point.replaceFirst(String.format(Locale.ROOT, "<georss:point>%.4f %.4f</georss:point>", lat, lon));
+	}
+
+	private static float jitter(Random random) {
+		return (2 * random.nextFloat() - 1) * JITTER;
+	}
+}
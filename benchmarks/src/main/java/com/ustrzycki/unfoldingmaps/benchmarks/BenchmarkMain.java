@@ -0,0 +1,43 @@
+package com.ustrzycki.unfoldingmaps.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with
+ * its allocation rate (gc.alloc.rate and gc.alloc.rate.norm, the bytes
+ * allocated per operation) next to its throughput.
+ *
+ * The usual JMH command line options can be given, for example a regular
+ * expression to run only some of the benchmarks, or -p scale=1,10 to skip
+ * the largest scale-ups.
+ *
+ * @author DariuszUstrzycki
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (commandLine.getIncludes().isEmpty()) {
+			builder.include(BenchmarkMain.class.getPackage().getName() + ".*Benchmark");
+		}
+		Options options = builder
+				.addProfiler(GCProfiler.class)
+				.forks(1)
+				.warmupIterations(3)
+				.measurementIterations(5)
+				.jvmArgsAppend("-Djava.awt.headless=true", "-Xmx4g",
+						"-Ddata.dir=" + BenchmarkData.dataDirectory().getAbsolutePath())
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,74 @@
+package com.ustrzycki.unfoldingmaps.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.ustrzycki.unfoldingmaps.earthquakes.CountryIndex;
+import com.ustrzycki.unfoldingmaps.earthquakes.QuakeClassifier;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/**
+ * Sorting the quakes into land and ocean quakes: isLand and the country
+ * lookup (isInCountry) one quake after another, and the classification of
+ * the whole feed on all cores, as at startup.
+ *
+ * @author DariuszUstrzycki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ClassifyBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int scale;
+
+	private List<PointFeature> features;
+	private CountryIndex countryIndex;
+	private QuakeClassifier classifier;
+
+	@Setup
+	public void setUp() throws IOException {
+		features = BenchmarkData.features(scale);
+		countryIndex = new CountryIndex(BenchmarkData.countryMarkers());
+		classifier = new QuakeClassifier(countryIndex);
+	}
+
+	@Benchmark
+	public int isLand() {
+		int land = 0;
+		for (PointFeature feature : features) {
+			if (classifier.isLand(feature)) {
+				land++;
+			}
+		}
+		return land;
+	}
+
+	@Benchmark
+	public int isInCountry() {
+		int found = 0;
+		for (PointFeature feature : features) {
+			Location location = feature.getLocation();
+			found += countryIndex.indexOf(location.getLat(), location.getLon());
+		}
+		return found;
+	}
+
+	@Benchmark
+	public List<Marker> classify() {
+		return classifier.classify(features);
+	}
+}
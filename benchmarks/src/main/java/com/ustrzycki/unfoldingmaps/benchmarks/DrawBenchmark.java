@@ -0,0 +1,74 @@
+package com.ustrzycki.unfoldingmaps.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.ustrzycki.unfoldingmaps.earthquakes.CommonMarker;
+import com.ustrzycki.unfoldingmaps.earthquakes.CountryIndex;
+import com.ustrzycki.unfoldingmaps.earthquakes.HeadlessGraphics;
+import com.ustrzycki.unfoldingmaps.earthquakes.QuakeClassifier;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/**
+ * Drawing every quake marker with its own drawMarker into an off-screen
+ * Java2D buffer of the size of the map, at its position on a plain
+ * equirectangular view of the world. One operation draws the whole feed.
+ *
+ * The fork runs with java.awt.headless set (see BenchmarkMain).
+ *
+ * @author DariuszUstrzycki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DrawBenchmark {
+
+	private static final int WIDTH = 650;
+	private static final int HEIGHT = 600;
+
+	@Param({ "1", "10", "100" })
+	public int scale;
+
+	private List<Marker> quakeMarkers;
+	private float[] x;
+	private float[] y;
+	private HeadlessGraphics pg;
+
+	@Setup
+	public void setUp() throws IOException {
+		QuakeClassifier classifier = new QuakeClassifier(new CountryIndex(BenchmarkData.countryMarkers()));
+		quakeMarkers = classifier.classify(BenchmarkData.features(scale));
+
+		x = new float[quakeMarkers.size()];
+		y = new float[quakeMarkers.size()];
+		for (int i = 0; i < x.length; i++) {
+			Location location = quakeMarkers.get(i).getLocation();
+			x[i] = (location.getLon() + 180) / 360 * WIDTH;
+			y[i] = (90 - location.getLat()) / 180 * HEIGHT;
+		}
+		pg = new HeadlessGraphics(WIDTH, HEIGHT);
+	}
+
+	@Benchmark
+	public HeadlessGraphics drawMarkers() {
+		pg.beginDraw();
+		pg.clear();
+		for (int i = 0; i < x.length; i++) {
+			((CommonMarker) quakeMarkers.get(i)).drawMarker(pg, x[i], y[i]);
+		}
+		pg.endDraw();
+		return pg;
+	}
+}
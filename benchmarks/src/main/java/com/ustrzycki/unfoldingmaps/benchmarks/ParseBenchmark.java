@@ -0,0 +1,49 @@
+package com.ustrzycki.unfoldingmaps.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import parsing.ParseFeed;
+
+/**
+ * Parsing the week feed and its scale-ups with ParseFeed.parseEarthquake.
+ *
+ * The feed is read from a file, as the sketch reads the offline feed; the
+ * larger scale-ups do not fit in memory as bytes.
+ *
+ * @author DariuszUstrzycki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParseBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int scale;
+
+	private File feed;
+
+	@Setup
+	public void setUp() throws IOException {
+		feed = BenchmarkData.scaledFeed(scale);
+	}
+
+	@Benchmark
+	public List<PointFeature> parseEarthquake() throws IOException {
+		return ParseFeed.parseEarthquake(new BufferedInputStream(new FileInputStream(feed)));
+	}
+}
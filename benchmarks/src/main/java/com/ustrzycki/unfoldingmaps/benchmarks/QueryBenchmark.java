@@ -0,0 +1,109 @@
+package com.ustrzycki.unfoldingmaps.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.ustrzycki.unfoldingmaps.earthquakes.CountryIndex;
+import com.ustrzycki.unfoldingmaps.earthquakes.EarthquakeMarker;
+import com.ustrzycki.unfoldingmaps.earthquakes.QuakeClassifier;
+import com.ustrzycki.unfoldingmaps.earthquakes.QuakeLayer;
+import com.ustrzycki.unfoldingmaps.earthquakes.SphericalKdTree;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/**
+ * The queries of the sketch on a built QuakeLayer:
+ * <ul>
+ * <li>distanceToCustomLocation: the nearest 20 quakes to a random location</li>
+ * <li>sortAndPrint: the 100 largest quakes</li>
+ * <li>hideMarkers: hiding all the markers but a clicked city and the quakes
+ * threatening it, and showing them all again</li>
+ * </ul>
+ * and building the layer itself.
+ *
+ * @author DariuszUstrzycki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QueryBenchmark {
+
+	private static final int NEAREST_QUAKES = 20;
+	private static final int LARGEST_QUAKES = 100;
+	private static final int LOCATIONS = 1024;
+
+	@Param({ "1", "10", "100", "1000" })
+	public int scale;
+
+	private List<Marker> quakeMarkers;
+	private List<Marker> cityMarkers;
+	private QuakeLayer layer;
+
+	private final Location[] locations = new Location[LOCATIONS];
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		QuakeClassifier classifier = new QuakeClassifier(new CountryIndex(BenchmarkData.countryMarkers()));
+		quakeMarkers = classifier.classify(BenchmarkData.features(scale));
+		cityMarkers = BenchmarkData.cityMarkers();
+		layer = QuakeLayer.build(quakeMarkers, cityMarkers);
+
+		Random random = new Random(42);
+		for (int i = 0; i < LOCATIONS; i++) {
+			locations[i] = new Location(180 * random.nextFloat() - 90, 360 * random.nextFloat() - 180);
+		}
+	}
+
+	@Benchmark
+	public SphericalKdTree.Neighbours distanceToCustomLocation() {
+		return layer.getQuakeTree().nearest(locations[next++ & (LOCATIONS - 1)], NEAREST_QUAKES);
+	}
+
+	@Benchmark
+	public List<EarthquakeMarker> sortAndPrint() {
+		return layer.getMagnitudeIndex().largest(LARGEST_QUAKES);
+	}
+
+	@Benchmark
+	public int hideMarkers() {
+		Marker clicked = cityMarkers.get(next++ % cityMarkers.size());
+
+		for (Marker marker : quakeMarkers) {
+			marker.setHidden(true);
+		}
+		for (Marker marker : cityMarkers) {
+			marker.setHidden(marker != clicked);
+		}
+		List<Marker> threatening = layer.getThreatGraph().quakesThreatening(clicked);
+		for (Marker quake : threatening) {
+			quake.setHidden(false);
+		}
+
+		// unhideAllMarkers
+		for (Marker marker : quakeMarkers) {
+			marker.setHidden(false);
+		}
+		for (Marker marker : cityMarkers) {
+			marker.setHidden(false);
+		}
+		return threatening.size();
+	}
+
+	@Benchmark
+	public QuakeLayer buildLayer() {
+		return QuakeLayer.build(quakeMarkers, cityMarkers);
+	}
+}
@@ -0,0 +1,298 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+import processing.opengl.PGraphicsOpenGL;
+
+/**
+ * Marker manager which draws the quake glyphs in a few batches instead of
+ * marker by marker.
+ *
+ * The land quake circles and ocean quake squares are put into retained
+ * PShapes: one filled shape per depth colour of EarthquakeMarker, one with
+ * all the outlines and one with the X of the recent quakes. Drawing the
+ * markers is then a fixed handful of draw calls, whatever their number.
+ *
+ * The glyphs keep their size on the screen, so panning only moves the
+ * shapes; they are rebuilt only when the zoom or the marker list changes,
+ * or a marker is hidden or shown (see CommonMarker.getHiddenVersion).
+ * Selected and clicked markers are drawn once more on top by
+ * their own draw method, for their titles and threat lines, as are the
+ * markers of other kinds (clusters, the user's location).
+ *
+ * During a playback the shown quakes change almost every frame, so the
+ * batches are not made of them. The quakes of the TimelinePlayer are
+ * instead cut into buckets of BUCKET_SIZE neighbours in time, and every
+ * bucket gets batches of its own, built the first time it is shown at the
+ * current zoom. A frame draws the batches of the buckets which are active
+ * as a whole and only the active quakes of the two buckets at the ends of
+ * the run one by one.
+ *
+ * Batching needs the OpenGL renderer; with any other renderer the markers
+ * are drawn one by one as before.
+ *
+ * @author DariuszUstrzycki
+ */
+public class BatchedMarkerManager extends MarkerManager<Marker> {
+
+	// sides of the polygon drawn for a quake circle
+	private static final int CIRCLE_SIDES = 16;
+
+	// quakes of a playback bucket
+	private static final int BUCKET_SIZE = 128;
+
+	private static final Location REFERENCE = new Location(0, 0);
+
+	// the batches of the markers
+	private Batch batch;
+
+	// markers drawn one by one on top of the batches
+	private final List<Marker> individual = new ArrayList<Marker>();
+
+	// what the batches were built for
+	private List<Marker> builtMarkers;
+	private int builtSize;
+	private float builtZoom;
+	private long builtHidden;
+
+	// the playback, if one is drawn, and the batches of its buckets, null
+	// until a bucket is shown; they are all dropped on a zoom
+	private TimelinePlayer timeline;
+	private Batch[] buckets;
+	private float bucketsZoom;
+	private long bucketsHidden;
+
+	public BatchedMarkerManager() {
+		super();
+	}
+
+	public BatchedMarkerManager(List<Marker> markers) {
+		super(markers);
+	}
+
+	/**
+	 * Draws the active quakes of the playback instead of the markers, which
+	 * should then be the active quakes too, or stops doing so when null.
+	 */
+	public void setTimeline(TimelinePlayer timeline) {
+		this.timeline = timeline;
+		buckets = null;
+	}
+
+	@Override
+	public void draw() {
+		if (!bEnableDrawing || markers == null) {
+			return;
+		}
+
+		long start = PhaseTimer.start();
+		drawMarkers();
+		PhaseTimer.stop(PhaseTimer.Phase.MARKERS, start);
+	}
+
+	private void drawMarkers() {
+		PGraphics pg = map.mapDisplay.getOuterPG();
+		if (!(pg instanceof PGraphicsOpenGL)) {
+			super.draw();
+			return;
+		}
+
+		float[] reference = map.mapDisplay.getObjectFromLocation(REFERENCE);
+		long hidden = CommonMarker.getHiddenVersion();
+		if (timeline != null) {
+			drawTimeline(pg, reference, hidden);
+		} else {
+			if (markers != builtMarkers || markers.size() != builtSize || map.getZoom() != builtZoom
+					|| hidden != builtHidden) {
+				individual.clear();
+				batch = new Batch(pg, markers, individual);
+				builtMarkers = markers;
+				builtSize = markers.size();
+				builtZoom = map.getZoom();
+				builtHidden = hidden;
+			}
+			batch.draw(pg, reference);
+
+			for (Marker marker : individual) {
+				marker.draw(map);
+			}
+		}
+		for (Marker marker : markers) {
+			if (!marker.isHidden() && isBatched(marker) && (marker.isSelected() || ((CommonMarker) marker).isClicked())) {
+				marker.draw(map);
+			}
+		}
+	}
+
+	private static boolean isBatched(Marker marker) {
+		return marker instanceof EarthquakeMarker;
+	}
+
+	// Draws the buckets which are active as a whole from their batches and
+	// the other active quakes one by one
+	private void drawTimeline(PGraphics pg, float[] reference, long hidden) {
+		List<Marker> quakes = timeline.getQuakes();
+		if (buckets == null || map.getZoom() != bucketsZoom || hidden != bucketsHidden) {
+			buckets = new Batch[(quakes.size() + BUCKET_SIZE - 1) / BUCKET_SIZE];
+			bucketsZoom = map.getZoom();
+			bucketsHidden = hidden;
+		}
+
+		int start = timeline.getActiveStart();
+		int end = timeline.getActiveEnd();
+		int firstBucket = (start + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		int endBucket = end / BUCKET_SIZE;
+		if (firstBucket >= endBucket) {
+			drawEach(quakes, start, end);
+			return;
+		}
+
+		for (int b = firstBucket; b < endBucket; b++) {
+			if (buckets[b] == null) {
+				buckets[b] = new Batch(pg, quakes.subList(b * BUCKET_SIZE, (b + 1) * BUCKET_SIZE), null);
+			}
+			buckets[b].draw(pg, reference);
+		}
+		drawEach(quakes, start, firstBucket * BUCKET_SIZE);
+		drawEach(quakes, endBucket * BUCKET_SIZE, end);
+	}
+
+	private void drawEach(List<Marker> quakes, int start, int end) {
+		for (int i = start; i < end; i++) {
+			Marker marker = quakes.get(i);
+			if (!marker.isHidden()) {
+				marker.draw(map);
+			}
+		}
+	}
+
+	/*
+	 * The batches of some markers: fills by colour, then the outlines and
+	 * the X marks. They are drawn where they were built, and a pan since
+	 * then just moves them.
+	 */
+	private class Batch {
+		final PShape[] fills;
+		final PShape outlines;
+		final PShape crosses;
+
+		// the screen position of REFERENCE at the build
+		final float referenceX, referenceY;
+
+		// Builds the batches of the markers; the markers which are not
+		// batched go to individual, or are left out if it is null
+		Batch(PGraphics pg, List<Marker> markers, List<Marker> individual) {
+			float[] reference = map.mapDisplay.getObjectFromLocation(REFERENCE);
+			referenceX = reference[0];
+			referenceY = reference[1];
+
+			int[] colors = { CommonMarker.YELLOW, CommonMarker.BLUE, CommonMarker.RED };
+			fills = new PShape[colors.length];
+			for (int c = 0; c < colors.length; c++) {
+				fills[c] = pg.createShape();
+				fills[c].beginShape(PConstants.TRIANGLES);
+				fills[c].noStroke();
+				fills[c].fill(colors[c]);
+			}
+			outlines = pg.createShape();
+			outlines.beginShape(PConstants.LINES);
+			outlines.stroke(CommonMarker.BLACK);
+			outlines.strokeWeight(1);
+			crosses = pg.createShape();
+			crosses.beginShape(PConstants.LINES);
+			crosses.stroke(CommonMarker.BLACK);
+			crosses.strokeWeight(2);
+
+			for (Marker marker : markers) {
+				if (marker.isHidden()) {
+					continue;
+				}
+				if (!isBatched(marker)) {
+					if (individual != null) {
+						individual.add(marker);
+					}
+					continue;
+				}
+				add((EarthquakeMarker) marker);
+			}
+
+			for (PShape fill : fills) {
+				fill.endShape();
+			}
+			outlines.endShape();
+			crosses.endShape();
+		}
+
+		private void add(EarthquakeMarker quake) {
+			float[] position = map.mapDisplay.getObjectFromLocation(quake.getLocation());
+			float x = position[0];
+			float y = position[1];
+
+			float r = quake.radius;
+			PShape fill = fills[depthColor(quake.getDepth())];
+
+			if (quake instanceof LandQuakeMarker) {
+				float[] circle = new float[2 * CIRCLE_SIDES];
+				for (int i = 0; i < CIRCLE_SIDES; i++) {
+					double angle = 2 * Math.PI * i / CIRCLE_SIDES;
+					circle[2 * i] = x + r * (float) Math.cos(angle);
+					circle[2 * i + 1] = y + r * (float) Math.sin(angle);
+				}
+				polygon(fill, outlines, circle);
+			} else {
+				polygon(fill, outlines, new float[] { x - r, y - r, x + r, y - r, x + r, y + r, x - r, y + r });
+			}
+
+			if (quake.getRecord().isRecent()) {
+				float d = r + 2;
+				crosses.vertex(x - d, y - d);
+				crosses.vertex(x + d, y + d);
+				crosses.vertex(x - d, y + d);
+				crosses.vertex(x + d, y - d);
+			}
+		}
+
+		void draw(PGraphics pg, float[] reference) {
+			pg.pushMatrix();
+			pg.translate(reference[0] - referenceX, reference[1] - referenceY);
+			for (PShape fill : fills) {
+				pg.shape(fill);
+			}
+			pg.shape(outlines);
+			pg.shape(crosses);
+			pg.popMatrix();
+		}
+	}
+
+	// same thresholds as EarthquakeMarker.colorDetermine
+	private static int depthColor(float depth) {
+		if (depth < EarthquakeMarker.THRESHOLD_INTERMEDIATE) {
+			return 0;
+		} else if (depth < EarthquakeMarker.THRESHOLD_DEEP) {
+			return 1;
+		}
+		return 2;
+	}
+
+	// adds a convex polygon, as a fan of triangles, and its outline
+	private static void polygon(PShape fill, PShape outline, float[] points) {
+		int n = points.length / 2;
+		for (int i = 1; i < n - 1; i++) {
+			fill.vertex(points[0], points[1]);
+			fill.vertex(points[2 * i], points[2 * i + 1]);
+			fill.vertex(points[2 * i + 2], points[2 * i + 3]);
+		}
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			outline.vertex(points[2 * i], points[2 * i + 1]);
+			outline.vertex(points[2 * j], points[2 * j + 1]);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+/**
+ * A part of the screen drawn into an off-screen buffer and only drawn
+ * again when what it shows has changed.
+ *
+ * Every frame the caller passes a key made of everything the layer
+ * depends on (the mode, the selection, the view...). While the key stays
+ * equal to the one of the last rendering, the buffer is simply drawn as
+ * an image; otherwise the painter draws the layer into the buffer first.
+ *
+ * The painter draws in the coordinates of the sketch, as if it drew
+ * straight to the screen.
+ *
+ * @author DariuszUstrzycki
+ */
+public class CachedLayer {
+
+	/** Draws the content of a layer */
+	public interface Painter {
+		void paint(PGraphics pg);
+	}
+
+	private final PGraphics buffer;
+	private final int x;
+	private final int y;
+	private final Painter painter;
+
+	private Object key;
+	private boolean rendered = false;
+	private int renderCount;
+
+	/**
+	 * Creates a layer covering the given rectangle of the sketch.
+	 */
+	public CachedLayer(PApplet applet, int x, int y, int width, int height, Painter painter) {
+		this.buffer = applet.createGraphics(width, height);
+		this.x = x;
+		this.y = y;
+		this.painter = painter;
+	}
+
+	/**
+	 * Draws the layer to the target, rendering it first if the key has
+	 * changed since the last time.
+	 */
+	public void draw(PGraphics target, Object key) {
+		if (!rendered || !this.key.equals(key)) {
+			buffer.beginDraw();
+			buffer.clear();
+			buffer.translate(-x, -y);
+			painter.paint(buffer);
+			buffer.endDraw();
+
+			this.key = key;
+			rendered = true;
+			renderCount++;
+		}
+		target.image(buffer, x, y);
+	}
+
+	/** Forces a rendering on the next draw */
+	public void invalidate() {
+		rendered = false;
+	}
+
+	/** How many times the layer has been rendered */
+	public int getRenderCount() {
+		return renderCount;
+	}
+}
@@ -0,0 +1,81 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/** Implements a marker standing for a group of nearby earthquakes
+ *
+ * It is drawn as one circle, growing with the number of quakes, with
+ * the number written in it. Its title gives the number and the largest
+ * magnitude of the group.
+ *
+ * @author DariuszUstrzycki
+ *
+ */
+public class ClusterMarker extends CommonMarker {
+
+	private final int count;
+	private final float maxMagnitude;
+
+	// the diameter of the circle
+	private final float size;
+
+	public ClusterMarker(Location location, int count, float maxMagnitude) {
+		super(location);
+		this.count = count;
+		this.maxMagnitude = maxMagnitude;
+		this.size = 14 + 3 * (float) (Math.log(count) / Math.log(2));
+
+		// the whole circle can be clicked, not just the default radius
+		setRadius(Math.max(size / 2, radius));
+	}
+
+	/**
+	 * Implementation of method to draw marker on the map.
+	 */
+	@Override
+	public void drawMarker(PGraphics pg, float x, float y) {
+		pg.pushStyle();
+
+		// the darker, the stronger the largest quake of the group
+		if (maxMagnitude >= EarthquakeMarker.THRESHOLD_MODERATE) {
+			pg.fill(RED);
+		} else if (maxMagnitude >= EarthquakeMarker.THRESHOLD_LIGHT) {
+			pg.fill(ORANGE);
+		} else {
+			pg.fill(YELLOW);
+		}
+		pg.ellipse(x, y, size, size);
+
+		pg.fill(BLACK);
+		pg.textAlign(PConstants.CENTER, PConstants.CENTER);
+		pg.textSize(10);
+		pg.text(count, x, y);
+
+		pg.popStyle();
+	}
+
+	/** Show the size of the group if this marker is selected */
+	@Override
+	public void showTitle(PGraphics pg, float x, float y) {
+		String s = count + " quakes, largest M " + maxMagnitude;
+		int length = s.length();
+
+		pg.fill(TITLE_BOX_YELLOW);
+		pg.rect(x, y + 20, length * 7 - 10, 15);
+
+		pg.fill(RED);
+		pg.textAlign(PConstants.LEFT, PConstants.CENTER);
+		pg.textSize(12);
+		pg.text(s, x + 2, y + 20 + 6);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public float getMaxMagnitude() {
+		return maxMagnitude;
+	}
+}
@@ -2,7 +2,6 @@ package com.ustrzycki.unfoldingmaps.earthquakes;
 
 import de.fhpotsdam.unfolding.geo.Location;
 import de.fhpotsdam.unfolding.marker.SimplePointMarker;
-import processing.core.PApplet;
 import processing.core.PGraphics;
 
 /** Implements a common marker for cities and earthquakes on an earthquake map
@@ -13,18 +12,24 @@ import processing.core.PGraphics;
  */
 public abstract class CommonMarker extends SimplePointMarker {
 	
-	static PApplet obj = new PApplet();
-	public static final int RED = obj.color(255, 0, 0); // Processing's color method to generate an int that represents a color.  
-	public static final int BROWN = obj.color(171, 70, 7);
-	public static final int ORANGE = obj.color(255, 153, 0);
-	public static final int YELLOW = obj.color(255, 255, 0);
-	public static final int BLUE = obj.color(0, 0, 255);
-	public static final int WHITE = obj.color(255, 255, 255);
-	public static final int BLACK = obj.color(0, 0, 0);
-	public static final int TITLE_BOX_YELLOW = obj.color(255, 230, 153);
+	// ARGB colours, as Processing's color(r, g, b) gives them, so the
+	// markers can be used without creating a PApplet (and a window)
+	public static final int RED = 0xFFFF0000;
+	public static final int BROWN = 0xFFAB4607;
+	public static final int ORANGE = 0xFFFF9900;
+	public static final int YELLOW = 0xFFFFFF00;
+	public static final int BLUE = 0xFF0000FF;
+	public static final int WHITE = 0xFFFFFFFF;
+	public static final int BLACK = 0xFF000000;
+	public static final int TITLE_BOX_YELLOW = 0xFFFFE699;
 
 	// Records whether this marker has been clicked (most recently)
 	protected boolean clicked = false;
+
+	// Counts the changes of the hidden flag of all the markers, so whoever
+	// keeps what the markers look like can tell when to draw them again.
+	// Markers are only hidden and shown on the animation thread
+	private static long hiddenVersion;
 	
 	public CommonMarker(Location location) {
 		super(location);
@@ -43,6 +48,25 @@ public abstract class CommonMarker extends SimplePointMarker {
 	public void setClicked(boolean state) {
 		clicked = state;
 	}
+
+	@Override
+	public void setHidden(boolean hidden) {
+		if (hidden != this.hidden) {
+			this.hidden = hidden;
+			hiddenVersion++;
+		}
+	}
+
+	// Changes whenever any marker is hidden or shown
+	public static long getHiddenVersion() {
+		return hiddenVersion;
+	}
+
+	// The distance from the centre, in pixels, within which isInside
+	// counts the marker as hit
+	public float getHitRadius() {
+		return radius;
+	}
 	
 	// Common piece of drawing method for markers; 
 	// Note that you should implement this by making calls 
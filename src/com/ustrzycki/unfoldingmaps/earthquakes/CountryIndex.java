@@ -0,0 +1,191 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.AbstractShapeMarker;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MultiMarker;
+
+/**
+ * Spatial index of the country polygons, used to find the country a quake
+ * occurred in.
+ *
+ * The index is built once from the country markers. Every polygon (every
+ * part of a MultiMarker) is copied into primitive arrays and put into the
+ * cells of a uniform lat/lon grid which its bounding box overlaps. A lookup
+ * then only runs the exact point-in-polygon test for the few polygons in the
+ * cell of the location whose bounding box contains it, instead of testing
+ * every polygon of every country.
+ *
+ * The point-in-polygon test is the same one AbstractShapeMarker uses in
+ * isInsideByLocation, and countries are tried in the order of the list, so
+ * the results are the same as when looping over the country markers.
+ *
+ * The index is not changed after it is built, so it can be used from many
+ * threads at the same time.
+ *
+ * @author DariuszUstrzycki
+ */
+public class CountryIndex {
+
+	// size of a grid cell in degrees
+	private static final float CELL_SIZE = 2;
+	private static final int ROWS = (int) Math.ceil(180 / CELL_SIZE);
+	private static final int COLUMNS = (int) Math.ceil(360 / CELL_SIZE);
+
+	private final List<Marker> countries;
+
+	// polygons: owning country, bounding box and vertices (x = lat, y = lon)
+	private final int[] polygonCountry;
+	private final float[] minLat, maxLat, minLon, maxLon;
+	private final float[][] polygonLats;
+	private final float[][] polygonLons;
+
+	// polygons of each cell, cellPolygons[cellStart[c]] to cellPolygons[cellStart[c + 1] - 1]
+	private final int[] cellStart;
+	private final int[] cellPolygons;
+
+	public CountryIndex(List<Marker> countries) {
+		this.countries = countries;
+
+		// collect the polygons of all countries, in the order of the list
+		List<AbstractShapeMarker> shapes = new ArrayList<AbstractShapeMarker>();
+		List<Integer> owners = new ArrayList<Integer>();
+		for (int i = 0; i < countries.size(); i++) {
+			addShapes(countries.get(i), i, shapes, owners);
+		}
+
+		int count = shapes.size();
+		polygonCountry = new int[count];
+		minLat = new float[count];
+		maxLat = new float[count];
+		minLon = new float[count];
+		maxLon = new float[count];
+		polygonLats = new float[count][];
+		polygonLons = new float[count][];
+
+		for (int p = 0; p < count; p++) {
+			polygonCountry[p] = owners.get(p);
+			copyPolygon(p, shapes.get(p).getLocations());
+		}
+
+		// put the polygons into the cells overlapped by their bounding boxes,
+		// first counting them, then filling in; polygon order is kept per cell
+		cellStart = new int[ROWS * COLUMNS + 1];
+		for (int p = 0; p < count; p++) {
+			for (int row = row(minLat[p]); row <= row(maxLat[p]); row++) {
+				for (int col = column(minLon[p]); col <= column(maxLon[p]); col++) {
+					cellStart[row * COLUMNS + col + 1]++;
+				}
+			}
+		}
+		for (int c = 0; c < ROWS * COLUMNS; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+
+		cellPolygons = new int[cellStart[ROWS * COLUMNS]];
+		int[] filled = new int[ROWS * COLUMNS];
+		for (int p = 0; p < count; p++) {
+			for (int row = row(minLat[p]); row <= row(maxLat[p]); row++) {
+				for (int col = column(minLon[p]); col <= column(maxLon[p]); col++) {
+					int cell = row * COLUMNS + col;
+					cellPolygons[cellStart[cell] + filled[cell]++] = p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the country marker the location is in, or null if it is not in
+	 * any country.
+	 */
+	public Marker countryAt(Location location) {
+		int index = indexOf(location.getLat(), location.getLon());
+		return index >= 0 ? countries.get(index) : null;
+	}
+
+	/**
+	 * Returns the position in the country list of the country the location
+	 * is in, or -1 if it is not in any country.
+	 */
+	public int indexOf(float lat, float lon) {
+		int cell = row(lat) * COLUMNS + column(lon);
+
+		for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+			int p = cellPolygons[i];
+
+			if (lat >= minLat[p] && lat <= maxLat[p] && lon >= minLon[p] && lon <= maxLon[p]
+					&& isInside(lat, lon, polygonLats[p], polygonLons[p])) {
+				return polygonCountry[p];
+			}
+		}
+
+		return -1;
+	}
+
+	public List<Marker> getCountries() {
+		return countries;
+	}
+
+	// some countries are represented as MultiMarkers, made up of polygons
+	private static void addShapes(Marker country, int owner, List<AbstractShapeMarker> shapes, List<Integer> owners) {
+		if (country instanceof MultiMarker) {
+			for (Marker marker : ((MultiMarker) country).getMarkers()) {
+				addShapes(marker, owner, shapes, owners);
+			}
+		} else if (country instanceof AbstractShapeMarker) {
+			shapes.add((AbstractShapeMarker) country);
+			owners.add(owner);
+		}
+	}
+
+	private void copyPolygon(int p, List<Location> locations) {
+		int size = locations.size();
+		float[] lats = new float[size];
+		float[] lons = new float[size];
+
+		minLat[p] = Float.POSITIVE_INFINITY;
+		maxLat[p] = Float.NEGATIVE_INFINITY;
+		minLon[p] = Float.POSITIVE_INFINITY;
+		maxLon[p] = Float.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < size; i++) {
+			Location location = locations.get(i);
+			lats[i] = location.x;
+			lons[i] = location.y;
+			minLat[p] = Math.min(minLat[p], lats[i]);
+			maxLat[p] = Math.max(maxLat[p], lats[i]);
+			minLon[p] = Math.min(minLon[p], lons[i]);
+			maxLon[p] = Math.max(maxLon[p], lons[i]);
+		}
+
+		polygonLats[p] = lats;
+		polygonLons[p] = lons;
+	}
+
+	// the ray casting test of AbstractShapeMarker.isInside, on the arrays
+	private static boolean isInside(float x, float y, float[] xs, float[] ys) {
+		boolean inside = false;
+		for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+			if ((ys[i] <= y && y < ys[j] || ys[j] <= y && y < ys[i])
+					&& x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	private static int row(float lat) {
+		return clamp((int) ((lat + 90) / CELL_SIZE), ROWS);
+	}
+
+	private static int column(float lon) {
+		return clamp((int) ((lon + 180) / CELL_SIZE), COLUMNS);
+	}
+
+	private static int clamp(int cell, int cells) {
+		return Math.max(0, Math.min(cells - 1, cell));
+	}
+}
@@ -1,20 +1,19 @@
 package com.ustrzycki.unfoldingmaps.earthquakes;
 
 import de.fhpotsdam.unfolding.geo.Location;
-import processing.core.PApplet;
 import processing.core.PGraphics;
 
 public class CustomLocationMarker extends CommonMarker{
 
-	static PApplet obj = new PApplet();
-	public static final int RED = obj.color(255, 0, 0); // Processing's color method to generate an int that represents a color.  
-	public static final int BROWN = obj.color(171, 70, 7);
-	public static final int ORANGE = obj.color(255, 153, 0);
-	public static final int YELLOW = obj.color(255, 255, 0);
-	public static final int BLUE = obj.color(0, 0, 255);
-	public static final int WHITE = obj.color(255, 255, 255);
-	public static final int BLACK = obj.color(0, 0, 0);
-	public static final int TITLE_BOX_YELLOW = obj.color(255, 230, 153);
+	// the same ARGB colours as CommonMarker
+	public static final int RED = 0xFFFF0000;
+	public static final int BROWN = 0xFFAB4607;
+	public static final int ORANGE = 0xFFFF9900;
+	public static final int YELLOW = 0xFFFFFF00;
+	public static final int BLUE = 0xFF0000FF;
+	public static final int WHITE = 0xFFFFFFFF;
+	public static final int BLACK = 0xFF000000;
+	public static final int TITLE_BOX_YELLOW = 0xFFFFE699;
 	
 	public static int REC_SIZE = 5;
 
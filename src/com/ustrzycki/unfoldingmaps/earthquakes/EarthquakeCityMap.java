@@ -1,31 +1,31 @@
 package com.ustrzycki.unfoldingmaps.earthquakes;
 
 
-import java.util.AbstractMap;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.ustrzycki.unfoldingmaps.jfr.FlightEvents;
 
 import de.fhpotsdam.unfolding.UnfoldingMap;
-import de.fhpotsdam.unfolding.data.Feature;
-import de.fhpotsdam.unfolding.data.GeoJSONReader;
-import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.events.EventDispatcher;
 import de.fhpotsdam.unfolding.geo.Location;
-import de.fhpotsdam.unfolding.marker.AbstractShapeMarker;
 import de.fhpotsdam.unfolding.marker.Marker;
-import de.fhpotsdam.unfolding.marker.MultiMarker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
 import de.fhpotsdam.unfolding.providers.Google;
 import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
 import de.fhpotsdam.unfolding.utils.MapUtils;
 import de.fhpotsdam.unfolding.utils.ScreenPosition;
 
-import parsing.ParseFeed;
 import processing.core.PApplet;
+import processing.core.PGraphics;
 
 /**
  * EarthquakeCityMap An application with an interactive map displaying
@@ -49,13 +49,51 @@ public class EarthquakeCityMap extends PApplet {
 	 */
 	public static String mbTilesString = "blankLight-1-3.mbtiles";
 
-	// feed with magnitude 2.5+ Earthquakes
-	private String earthquakesURL = "http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_week.atom";
+	// feeds with magnitude 2.5+ Earthquakes of the past hour, day, week and
+	// month, and the significant earthquakes of the past month
+	// They are loaded at the same time and merged, each quake shown once
+	private String[] earthquakeFeeds = {
+			"http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_hour.atom",
+			"http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_day.atom",
+			"http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_week.atom",
+			"http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_month.atom",
+			"http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/significant_month.atom" };
 
 	// The files containing city and country names with appropriate info
 	private String cityFile = "city-data.json";
 	private String countryFile = "countries-geo.json";
 
+	// Binary snapshot of the parsed and classified data, in the data folder
+	private String snapshotFile = "quakes.snapshot";
+
+	// How often the feed is polled for new quakes, in minutes
+	private static final long REFRESH_MINUTES = 5;
+
+	// Directory of the historical catalog (see HistoricalImporter), in the
+	// data folder, and how many of its largest quakes in view are shown
+	private String historicalDirectory = "historical";
+	private static final int HISTORICAL_QUAKES_SHOWN = 2000;
+
+	// How long the view has to stay the same before the historical quakes
+	// are queried for it, so a drag or the tweening of a zoom costs one query
+	private static final int HISTORICAL_SETTLE_MILLIS = 250;
+
+	// Tiles of the whole historical catalog made by OverlayTileWriter, in
+	// the data folder, and how many of them to keep in memory. Up to their
+	// highest zoom level they are drawn instead of the historical markers
+	private String historicalOverlayFile = "historical-overlay.mbtiles";
+	private static final int OVERLAY_CACHE_TILES = 256;
+
+	// How long a playback of all the quakes shown takes, and for how long
+	// of the played time every quake stays on the map
+	private static final long PLAYBACK_MILLIS = 60 * 1000;
+	private static final long LIVE_PLAYBACK_WINDOW = 24 * 60 * 60 * 1000L;
+	private static final long HISTORICAL_PLAYBACK_WINDOW = 30 * LIVE_PLAYBACK_WINDOW;
+
+	// Draw a frame only when the input, the map or the data change, instead
+	// of at the full frame rate
+	private static final boolean onDemand = true;
+
 	// The map of the world
 	private UnfoldingMap map;
 
@@ -64,112 +102,335 @@ public class EarthquakeCityMap extends PApplet {
 	private List<Marker> quakeMarkers;
 	private List<Marker> countryMarkers;
 
+	// Sorts quakes into land and ocean quakes, using a grid index of the
+	// country polygons. Taken from the startup loader; the refresher and the
+	// historical loader build their own from countryData if it is null
+	private QuakeClassifier classifier;
+	private byte[] countryData;
+
+	// k-d tree of the quake locations, for the nearest quakes to the user's location
+	private SphericalKdTree quakeTree;
+
+	// Quake markers ordered by magnitude, largest first
+	private MagnitudeIndex magnitudeIndex;
+
+	// Screen-space grids of the quake and city markers for hover and click tests
+	private ScreenHitGrid quakeHitGrid;
+	private ScreenHitGrid cityHitGrid;
+
+	// Which cities are inside the threat circle of which quakes
+	private ThreatGraph threatGraph;
+
+	// The quakes shown now and the fields above are taken from this layer.
+	// A new layer from the refresher is only installed in draw(), so all
+	// of them are only ever read and written on the animation thread.
+	private QuakeLayer quakeLayer;
+	private FeedRefresher refresher;
+
+	// The quakes and the cities are drawn by their own marker managers, so
+	// a refresh only swaps the list of the quake manager. Both draw their
+	// glyphs in batches
+	private BatchedMarkerManager quakeManager;
+	private MarkerManager<Marker> cityManager;
+
+	// The legend, the menu and the cities are drawn into buffers which are
+	// only drawn again when what they show changes
+	private CachedLayer legendLayer;
+	private CachedLayer menuLayer;
+	private CachedLayer cityLayer;
+
+	// The timings of the phases, shown below the menu with key i
+	private PerformanceHud hud = new PerformanceHud();
+	private CachedLayer hudLayer;
+
+	// What the quake manager draws now: the clusters of the zoom level,
+	// all the quakes, or the active quakes of a playback; and what can be
+	// hovered and clicked, which are the clusters under the overlay too
+	private List<Marker> shownQuakes;
+	private List<Marker> hitQuakes;
+
+	// How many of the nearest quakes to list for the user's location
+	private static final int NEAREST_QUAKES_TO_PRINT = 20;
+
 	// user's location
 	private CustomLocationMarker userLocationMarker;
 
 	private enum Mode {
-		DEFAULT, CUSTOM_LOCATION, HISTORICAL
+		DEFAULT, CUSTOM_LOCATION, HISTORICAL, PLAYBACK
 	};
 
 	private Mode mapMode = Mode.DEFAULT;
 
+	// The historical catalog, opened when Mode.HISTORICAL is first entered,
+	// its loader and the layer last taken from it, the live layer to go back
+	// to and the view the historical quakes were asked for
+	private HistoricalCatalog historicalCatalog;
+	private HistoricalQuakeLoader historicalQuakes;
+	private QuakeLayer historicalLayer;
+	private QuakeLayer liveLayer;
+	private Location historicalCenter;
+	private float historicalZoom;
+
+	// the view of the last frame in Mode.HISTORICAL and when it changed
+	private Location viewCenter;
+	private float viewZoom;
+	private int viewChangedAt;
+
+	// The map of the overlay tiles, drawn over the map, or null without them
+	private UnfoldingMap overlayMap;
+	private OverlayTileProvider overlayTiles;
+
+	// Plays the quakes of the layer in time order, and the mode to go back to
+	private TimelinePlayer player;
+	private Mode playbackReturnMode;
+	private int lastPlaybackMillis;
+
 	private CommonMarker lastSelected;
 	private CommonMarker lastClicked;
 
+	// Asks for the frames when onDemand is set, null otherwise
+	private RedrawScheduler redraws;
+
+	// Loads the data in the background after setup, null once it is done,
+	// and the layer last taken from it
+	private StartupLoader startup;
+	private QuakeLayer startupLayer;
+
 	@Override
 	public void setup() {
 		// (1) Initializing canvas and map tiles
 		size(900, 700, OPENGL);
 		if (offline) {
 			map = new UnfoldingMap(this, 100, 50, 650, 600, new MBTilesMapProvider(mbTilesString));
-			earthquakesURL = "2.5_week.atom"; // The same feed, but saved August
-												// 7, 2015
+			earthquakeFeeds = new String[] { "2.5_week.atom" }; // The week feed,
+																// saved August
+																// 7, 2015
 		} else {
 			map = new UnfoldingMap(this, 178, 50, 650, 600, new Google.GoogleMapProvider());
 		}
 
-		MapUtils.createDefaultEventDispatcher(this, map); // creates an event
-															// handler
+		EventDispatcher dispatcher = MapUtils.createDefaultEventDispatcher(this, map); // creates an event
+																						// handler
+		if (onDemand) {
+			redraws = new RedrawScheduler(this, map, dispatcher);
+		}
 
 		// (2) Reading in earthquake data and geometric properties
-		// STEP 1: load country features and markers
-		List<Feature> countries = GeoJSONReader.loadData(this, countryFile);
-		countryMarkers = MapUtils.createSimpleMarkers(countries);
+		// The countries, cities and feeds are loaded in the background, all
+		// at the same time, and draw() adds the cities and quakes to the map
+		// as they come in (see installStartupProgress)
+		cityMarkers = Collections.emptyList();
+		quakeMarkers = Collections.emptyList();
+		startup = new StartupLoader(this, countryFile, cityFile,
+				new MultiFeedLoader(this, Arrays.asList(earthquakeFeeds)), dataFile(snapshotFile));
+		if (redraws != null) {
+			startup.setListener(redraws::request);
+		}
+		startup.start();
+
+		// (3) Add markers to map
+		// NOTE: Country markers are not added to the map. They are used
+		// for their geometric properties
+		// The quake manager is added first, so the quakes are drawn under the
+		// cities and it becomes the default marker manager of the map
+
+		quakeManager = new BatchedMarkerManager();
+		cityManager = new MarkerManager<Marker>(cityMarkers);
+		map.addMarkerManager(quakeManager);
+		map.addMarkerManager(cityManager);
+		cityManager.disableDrawing();
+
+		legendLayer = new CachedLayer(this, 25, 50, 151, 251, pg -> addKey(pg));
+		menuLayer = new CachedLayer(this, 25, 300, 151, 121,
+				pg -> addNearestQuakeMenu(pg, "Click this button to", "set your location and", "see the nearest quake"));
+		cityLayer = new CachedLayer(this, (int) map.getScreenPosition(map.getTopLeftBorder()).x,
+				(int) map.getScreenPosition(map.getTopLeftBorder()).y, (int) map.getWidth(), (int) map.getHeight(),
+				pg -> drawCities(pg));
+		hudLayer = new CachedLayer(this, PerformanceHud.X, PerformanceHud.Y, PerformanceHud.WIDTH + 1,
+				PerformanceHud.HEIGHT + 1, pg -> hud.draw(pg));
+
+		quakeHitGrid = new ScreenHitGrid(width, height);
+		cityHitGrid = new ScreenHitGrid(width, height);
+		cityHitGrid.setMarkers(cityMarkers);
+
+		installLayer(QuakeLayer.build(quakeMarkers, cityMarkers));
 
-		// STEP 2: read in city data
-		List<Feature> cities = GeoJSONReader.loadData(this, cityFile);
-		cityMarkers = new ArrayList<Marker>();
-		for (Feature city : cities) {
-			cityMarkers.add(new CityMarker(city));
+	} // End setup
+
+	// Takes what the startup loader has loaded since the last frame. Like a
+	// refresh, it waits while a marker is clicked or another mode is on
+	private void installStartupProgress() {
+		if (startup == null || lastClicked != null || mapMode != Mode.DEFAULT) {
+			return;
 		}
 
-		// STEP 3: read in earthquake RSS feed
-		List<PointFeature> earthquakes = ParseFeed.parseEarthquake(this, earthquakesURL);
-		quakeMarkers = new ArrayList<Marker>();
+		// read before the lists, so nothing published before it is missed
+		boolean finished = startup.isFinished();
 
-		for (PointFeature feature : earthquakes) {
-			// check if LandQuake
-			if (isLand(feature)) {
-				quakeMarkers.add(new LandQuakeMarker(feature));
-			}
-			// OceanQuakes
-			else {
-				quakeMarkers.add(new OceanQuakeMarker(feature));
-			}
+		// the layers are built by the loader, so this only swaps them in
+		List<Marker> cities = startup.getCityMarkers();
+		QuakeLayer layer = startup.getLatest();
+		if (cities != null && cities != cityMarkers) {
+			cityMarkers = cities;
+			cityManager.setMarkers(new ArrayList<Marker>(cities));
+			cityHitGrid.setMarkers(cities);
+		}
+		if (layer != null && layer != startupLayer) {
+			startupLayer = layer;
+			installLayer(layer);
 		}
 
-		// could be used for debugging
-		printQuakes();
+		if (finished) {
+			finishStartup();
+		}
+	}
 
-		// (3) Add markers to map
-		// NOTE: Country markers are not added to the map. They are used
-		// for their geometric properties
+	private void finishStartup() {
+		countryData = startup.getCountryData();
+		countryMarkers = startup.getCountryMarkers();
+		classifier = startup.getClassifier();
+		MultiFeedLoader feedLoader = startup.getFeeds();
+		startup = null;
 
-		map.addMarkers(quakeMarkers);
-		map.addMarkers(cityMarkers);
+		// could be used for debugging
+		printQuakes();
 
 		sortAndPrint(100);
 
-	} // End setup
+		// (4) Keep polling the feed; the local feed of the offline mode
+		// never changes
+		if (!offline && countryData != null) {
+			refresher = new FeedRefresher(this, feedLoader, countryData, classifier, quakeLayer);
+			if (redraws != null) {
+				refresher.setListener(redraws::request);
+			}
+			refresher.start(REFRESH_MINUTES, TimeUnit.MINUTES);
+		}
+	}
 
 	@Override
 	public void draw() {
+		Object frameEvent = FlightEvents.beginFrame();
+		long frameStart = PhaseTimer.start();
+		if (redraws != null) {
+			redraws.frameStarted();
+		}
+		installStartupProgress();
+		installRefreshedLayer();
+		followHistoricalView();
+		advancePlayback();
+		updateShownQuakes();
 		background(0);
+		long mapStart = PhaseTimer.start();
 		map.draw();
-		addKey();
-		addNearestQuakeMenu("Click this button to", "set your location and", "see the nearest quake");
+		PhaseTimer.stop(PhaseTimer.Phase.MAP_DRAW, mapStart);
+		if (overlayShown()) {
+			followOverlayView();
+			overlayMap.draw();
+		}
+		cityLayer.draw(g, cityKey());
+		legendLayer.draw(g, Boolean.TRUE); // the key never changes
+		menuLayer.draw(g, menuKey());
+		if (hud.isVisible()) {
+			hud.update(millis());
+			hudLayer.draw(g, hud.getVersion());
+		}
+		if (redraws != null) {
+			redraws.frameDrawn(mapMode == Mode.PLAYBACK || (overlayShown() && !overlayMap.allTilesLoaded())
+					|| historicalViewSettling());
+		}
+		PhaseTimer.stop(PhaseTimer.Phase.FRAME, frameStart);
+		FlightEvents.endFrame(frameEvent, mapMode.name(), shownQuakes == null ? 0 : shownQuakes.size());
 	}
 
-	private void sortAndPrint(int numToPrint) {
+	// Any input may change what is drawn
+	private void requestRedraw() {
+		if (redraws != null) {
+			redraws.request();
+		}
+	}
 
-		System.out.println("The largest eartquakes by sortAndPrint method: ");
+	// Draws the city markers and the user's location, like the city manager
+	// would, at their positions on the screen
+	private void drawCities(PGraphics pg) {
+		for (Marker marker : cityManager.getMarkers()) {
+			ScreenPosition position = map.getScreenPosition(marker.getLocation());
+			((CommonMarker) marker).draw(pg, position.x, position.y);
+		}
+	}
+
+	// Everything the city layer depends on: the view, the hidden cities,
+	// the selected city and the user's location
+	private List<Object> cityKey() {
+		List<Marker> cities = cityManager.getMarkers();
+		ScreenPosition origin = map.getScreenPosition(new Location(0, 0));
+		int selected = -1;
+		for (int i = 0; i < cities.size(); i++) {
+			if (cities.get(i).isSelected()) {
+				selected = i;
+			}
+		}
+		Location user = userLocationMarker == null ? null : userLocationMarker.getLocation();
+		return Arrays.<Object>asList(map.getZoom(), origin.x, origin.y, cities.size(),
+				CommonMarker.getHiddenVersion(), selected,
+				user == null ? null : user.getLat(), user == null ? null : user.getLon());
+	}
 
-		// 1. creates a new array from the list of earthquake markers
-		Object[] arr = quakeMarkers.toArray(); // returns the elements in the
-												// List as an array of Objects
+	// Everything the menu depends on
+	private List<Object> menuKey() {
+		if (mapMode == Mode.HISTORICAL) {
+			return Arrays.<Object>asList(mapMode, quakeMarkers.size(), overlayShown());
+		} else if (mapMode == Mode.PLAYBACK) {
+			return Arrays.<Object>asList(mapMode, player.getClock() / TimeUnit.DAYS.toMillis(1), player.getActive().size());
+		}
+		return Arrays.<Object>asList(mapMode);
+	}
 
-		// 2. sort the array of earthquake markers in reverse order of their
-		// magnitude (highest to lowest)
-		// sort in the natural ordering
-		Arrays.sort(arr);
+	// Installs the newest layer of the refresher, if there is one. While a
+	// marker is clicked or the user's location is shown the markers are
+	// hidden and shown by the old layer, so the new one waits until then.
+	private void installRefreshedLayer() {
+		if (refresher == null || lastClicked != null || mapMode != Mode.DEFAULT) {
+			return;
+		}
+
+		QuakeLayer latest = refresher.getLatest();
+		if (latest != quakeLayer) {
+			installLayer(latest);
+		}
+	}
 
-		// convert the array back into a list
-		List<Object> newQuakesList = Arrays.asList(arr);
-		// reverse the list
-		Collections.reverse(newQuakesList);
+	private void installLayer(QuakeLayer layer) {
+		quakeLayer = layer;
+		quakeMarkers = layer.getQuakeMarkers();
+		quakeTree = layer.getQuakeTree();
+		magnitudeIndex = layer.getMagnitudeIndex();
+		threatGraph = layer.getThreatGraph();
+		updateShownQuakes();
 
-		// print out the top numToPrint earthquakes
-		// if number of quakes is smaller than numToPrint, just print all the
-		// earthquakes
+		// the selected marker may be one of the old quakes
+		if (lastSelected != null) {
+			lastSelected.setSelected(false);
+			lastSelected = null;
+		}
+	}
 
-		int counter = 1;
-		for (Object quake : newQuakesList) {
+	/**
+	 * Prints the numToPrint largest earthquakes and returns them, largest
+	 * first. If there are fewer quakes than numToPrint, all of them are
+	 * printed. The ranking is read from the magnitude index, so nothing is
+	 * sorted here.
+	 */
+	public List<EarthquakeMarker> sortAndPrint(int numToPrint) {
 
-			if (counter <= numToPrint)
-				System.out.println(((EarthquakeMarker) quake).getTitle());
+		System.out.println("The largest eartquakes by sortAndPrint method: ");
 
-			counter++;
+		List<EarthquakeMarker> largest = magnitudeIndex.largest(numToPrint);
+		for (EarthquakeMarker quake : largest) {
+			System.out.println(quake.getTitle());
 		}
+
+		return largest;
 	}
 
 	/**
@@ -177,6 +438,7 @@ public class EarthquakeCityMap extends PApplet {
 	 */
 	@Override
 	public void mouseMoved() {
+		requestRedraw();
 
 		// clear the last selection immediately after mouse leaves a marker's
 		// area
@@ -185,31 +447,30 @@ public class EarthquakeCityMap extends PApplet {
 			lastSelected = null;
 		}
 
-		selectMarkerIfHover(quakeMarkers);
-		selectMarkerIfHover(cityMarkers);
+		selectMarkerIfHover(quakeHitGrid);
+		selectMarkerIfHover(cityHitGrid);
 	}
 
 	// If there is a marker under the cursor, and lastSelected is null
 	// set the lastSelected to be the first marker found under the cursor
 	// Make sure you do not select two markers.
+	// The grid only tests the markers in the cell under the cursor.
 	//
-	private void selectMarkerIfHover(List<Marker> markers) {
+	private void selectMarkerIfHover(ScreenHitGrid markers) {
 
-		for (Marker marker : markers) {
+		Marker marker = markers.firstHit(map, mouseX, mouseY);
 
-			if (marker.isInside(map, mouseX, mouseY)) {
+		if (marker != null) {
 
-				if (lastSelected != null)
-					lastSelected.setSelected(false); // remove the selection
-														// from the previously
-														// selected marker in
-														// the city/quake
-														// markers
+			if (lastSelected != null)
+				lastSelected.setSelected(false); // remove the selection
+													// from the previously
+													// selected marker in
+													// the city/quake
+													// markers
 
-				marker.setSelected(true);
-				lastSelected = (CommonMarker) marker;
-				break;
-			}
+			marker.setSelected(true);
+			lastSelected = (CommonMarker) marker;
 		}
 	}
 
@@ -236,7 +497,9 @@ public class EarthquakeCityMap extends PApplet {
 		Location loc = map.getLocation(position);
 		markerToShow.setLocation(loc);
 		markerToShow.setHidden(false);
-		map.addMarker(userLocationMarker);
+		if (!cityManager.getMarkers().contains(userLocationMarker)) {
+			cityManager.addMarker(userLocationMarker);
+		}
 
 	}
 
@@ -248,16 +511,22 @@ public class EarthquakeCityMap extends PApplet {
 	@Override
 	public void mouseClicked() {
 		System.out.println("\nCLICK!!!");
+		requestRedraw();
+
+		// the markers come and go during a playback
+		if (mapMode == Mode.PLAYBACK) {
+			return;
+		}
 
 		boolean foundNewSelection = false;
 
 		// look for a new selection only after unhiding took place >>
 		// lastClicked = null;
 		if (lastClicked == null) {
-			foundNewSelection = checkMarkersForClick(cityMarkers);
+			foundNewSelection = checkMarkersForClick(cityHitGrid);
 
 			if (!foundNewSelection)
-				foundNewSelection = checkMarkersForClick(quakeMarkers);
+				foundNewSelection = checkMarkersForClick(quakeHitGrid);
 		}
 
 		if (foundNewSelection) {
@@ -276,7 +545,7 @@ public class EarthquakeCityMap extends PApplet {
 		/////////////////////////// SELECT CUSTOM LOCATION IF THE APPROPRIATE
 		/////////////////////////// BUTTON IS CLICKED/////////////////////
 
-		if (clickOnCusLocButton() && (mapMode != Mode.CUSTOM_LOCATION)) {
+		if (clickOnCusLocButton() && (mapMode == Mode.DEFAULT)) {
 			System.out.println("Setting CUSTOM_LOCATION");
 			System.out.println("Calling nearestQuake() method 1st time");
 			mapMode = Mode.CUSTOM_LOCATION;
@@ -314,21 +583,26 @@ public class EarthquakeCityMap extends PApplet {
 		}
 	}
 
-	private boolean checkMarkersForClick(List<Marker> markers) {
+	private boolean checkMarkersForClick(ScreenHitGrid markers) {
 
-		for (Marker marker : markers) {
+		Marker marker = markers.firstHit(map, mouseX, mouseY);
 
-			if (marker.isInside(map, mouseX, mouseY)) {
+		// a click on a cluster zooms in to its quakes
+		if (marker instanceof ClusterMarker) {
+			map.zoomAndPanTo(map.getZoomLevel() + 2, marker.getLocation());
+			return false;
+		}
 
-				System.out.println("This click is inside a marker.");
+		if (marker != null) {
 
-				if (clickOnPreviousSelection(marker)) {
-					return false;
-				} else {
-					((CommonMarker) marker).setClicked(true);
-					lastClicked = (CommonMarker) marker;
-					return true;
-				}
+			System.out.println("This click is inside a marker.");
+
+			if (clickOnPreviousSelection(marker)) {
+				return false;
+			} else {
+				((CommonMarker) marker).setClicked(true);
+				lastClicked = (CommonMarker) marker;
+				return true;
 			}
 		}
 
@@ -365,6 +639,7 @@ public class EarthquakeCityMap extends PApplet {
 	}
 
 	private void hideMarkers() {
+		Object event = FlightEvents.beginThreatFilter();
 
 		for (Marker marker : quakeMarkers) {
 			if (!(((CommonMarker) marker) == lastClicked)) { // don't hide the
@@ -372,10 +647,6 @@ public class EarthquakeCityMap extends PApplet {
 																// button
 				marker.setHidden(true);
 			}
-
-			if (lastClicked instanceof CityMarker) {
-				leaveThreateningQuakesVisible(marker);
-			}
 		}
 
 		for (Marker marker : cityMarkers) {
@@ -384,228 +655,377 @@ public class EarthquakeCityMap extends PApplet {
 																// marker
 				marker.setHidden(true);
 			}
-
-			if (lastClicked instanceof EarthquakeMarker) {
-				leaveThreatenedCitiesVisible(marker);
-
-				if (lastClicked instanceof OceanQuakeMarker) {
-					addCityToThreatenedCities(marker);
-				}
-			}
 		}
-	}
 
-	private void leaveThreatenedCitiesVisible(Marker cityMarker) {
-		if ((distanceToClickedMarker(cityMarker) <= threatCircleRadius((EarthquakeMarker) lastClicked))) {
-			cityMarker.setHidden(false);
+		// the threat graph already knows the neighbours of the clicked
+		// marker, so only those are looked at
+		int leftVisible = 0;
+		String clicked = "location";
+		if (lastClicked instanceof CityMarker) {
+			leftVisible = leaveThreateningQuakesVisible((CityMarker) lastClicked);
+			clicked = "city";
+		} else if (lastClicked instanceof EarthquakeMarker) {
+			leftVisible = leaveThreatenedCitiesVisible((EarthquakeMarker) lastClicked);
+			clicked = "quake";
 		}
+		FlightEvents.endThreatFilter(event, clicked, quakeMarkers.size() + cityMarkers.size(), leftVisible);
 	}
 
-	private void leaveThreateningQuakesVisible(Marker quakeMarker) {
-		if ((distanceToClickedMarker(quakeMarker) <= threatCircleRadius((EarthquakeMarker) quakeMarker))) {
-			quakeMarker.setHidden(false);
-		}
-	}
+	// returns the number of cities left visible
+	private int leaveThreatenedCitiesVisible(EarthquakeMarker quakeMarker) {
+		List<Marker> threatenedCities = threatGraph.citiesThreatenedBy(quakeMarker);
 
-	private void addCityToThreatenedCities(Marker cityMarker) {
+		if (quakeMarker instanceof OceanQuakeMarker) {
+			quakeMarker.setMarkersMap(map);
+			quakeMarker.clearThreatenedCities();
+		}
 
-		if ((distanceToClickedMarker(cityMarker) <= threatCircleRadius((EarthquakeMarker) lastClicked))) {
+		for (Marker cityMarker : threatenedCities) {
+			cityMarker.setHidden(false);
 
-			((OceanQuakeMarker) lastClicked).setMarkersMap(map);
-			((OceanQuakeMarker) lastClicked).addThreatenedCity((CityMarker) cityMarker);
+			if (quakeMarker instanceof OceanQuakeMarker) {
+				quakeMarker.addThreatenedCity((CityMarker) cityMarker);
+			}
 		}
+		return threatenedCities.size();
 	}
 
-	private double threatCircleRadius(EarthquakeMarker marker) {
-		return marker.threatCircle();
-	}
-
-	/**
-	 * @param a
-	 *            marker
-	 * @return the distance from the given marker to the last clicked marker
-	 */
-	private double distanceToClickedMarker(Marker marker) {
-		return marker.getDistanceTo(lastClicked.getLocation());
+	// returns the number of quakes left visible
+	private int leaveThreateningQuakesVisible(CityMarker cityMarker) {
+		List<Marker> threateningQuakes = threatGraph.quakesThreatening(cityMarker);
+		for (Marker quakeMarker : threateningQuakes) {
+			quakeMarker.setHidden(false);
+		}
+		return threateningQuakes.size();
 	}
 
 	// helper method to draw key in GUI
-	private void addKey() {
+	private void addKey(PGraphics pg) {
 		// you can use Processing's graphics methods here
-		fill(255, 250, 240);
+		pg.fill(255, 250, 240);
 
 		int xbase = 25;
 		int ybase = 50;
 
-		rect(xbase, ybase, 150, 250);
+		pg.rect(xbase, ybase, 150, 250);
 
-		fill(0);
-		textAlign(LEFT, CENTER);
-		textSize(12);
-		text("Earthquake Key", xbase + 25, ybase + 25);
+		pg.fill(0);
+		pg.textAlign(LEFT, CENTER);
+		pg.textSize(12);
+		pg.text("Earthquake Key", xbase + 25, ybase + 25);
 
-		fill(150, 30, 30);
+		pg.fill(150, 30, 30);
 		int tri_xbase = xbase + 35;
 		int tri_ybase = ybase + 50;
-		triangle(tri_xbase, tri_ybase - CityMarker.TRI_SIZE, tri_xbase - CityMarker.TRI_SIZE,
+		pg.triangle(tri_xbase, tri_ybase - CityMarker.TRI_SIZE, tri_xbase - CityMarker.TRI_SIZE,
 				tri_ybase + CityMarker.TRI_SIZE, tri_xbase + CityMarker.TRI_SIZE, tri_ybase + CityMarker.TRI_SIZE);
 
-		fill(0, 0, 0);
-		textAlign(LEFT, CENTER);
-		text("City Marker", tri_xbase + 15, tri_ybase);
+		pg.fill(0, 0, 0);
+		pg.textAlign(LEFT, CENTER);
+		pg.text("City Marker", tri_xbase + 15, tri_ybase);
 
-		text("Land Quake", xbase + 50, ybase + 70);
-		text("Ocean Quake", xbase + 50, ybase + 90);
-		text("Size ~ Magnitude", xbase + 25, ybase + 110);
+		pg.text("Land Quake", xbase + 50, ybase + 70);
+		pg.text("Ocean Quake", xbase + 50, ybase + 90);
+		pg.text("Size ~ Magnitude", xbase + 25, ybase + 110);
 
-		fill(255, 255, 255);
-		ellipse(xbase + 35, ybase + 70, 10, 10);
-		rect(xbase + 35 - 5, ybase + 90 - 5, 10, 10);
+		pg.fill(255, 255, 255);
+		pg.ellipse(xbase + 35, ybase + 70, 10, 10);
+		pg.rect(xbase + 35 - 5, ybase + 90 - 5, 10, 10);
 
-		fill(color(255, 255, 0));
-		ellipse(xbase + 35, ybase + 140, 12, 12);
-		fill(color(0, 0, 255));
-		ellipse(xbase + 35, ybase + 160, 12, 12);
-		fill(color(255, 0, 0));
-		ellipse(xbase + 35, ybase + 180, 12, 12);
+		pg.fill(color(255, 255, 0));
+		pg.ellipse(xbase + 35, ybase + 140, 12, 12);
+		pg.fill(color(0, 0, 255));
+		pg.ellipse(xbase + 35, ybase + 160, 12, 12);
+		pg.fill(color(255, 0, 0));
+		pg.ellipse(xbase + 35, ybase + 180, 12, 12);
 
-		textAlign(LEFT, CENTER);
-		fill(0, 0, 0);
-		text("Shallow", xbase + 50, ybase + 140);
-		text("Intermediate", xbase + 50, ybase + 160);
-		text("Deep", xbase + 50, ybase + 180);
+		pg.textAlign(LEFT, CENTER);
+		pg.fill(0, 0, 0);
+		pg.text("Shallow", xbase + 50, ybase + 140);
+		pg.text("Intermediate", xbase + 50, ybase + 160);
+		pg.text("Deep", xbase + 50, ybase + 180);
 
-		text("Past hour", xbase + 50, ybase + 200);
+		pg.text("Past hour", xbase + 50, ybase + 200);
 
-		fill(255, 255, 255);
+		pg.fill(255, 255, 255);
 		int centerx = xbase + 35;
 		int centery = ybase + 200;
-		ellipse(centerx, centery, 12, 12);
+		pg.ellipse(centerx, centery, 12, 12);
 
-		strokeWeight(2);
-		line(centerx - 8, centery - 8, centerx + 8, centery + 8);
-		line(centerx - 8, centery + 8, centerx + 8, centery - 8);
+		pg.strokeWeight(2);
+		pg.line(centerx - 8, centery - 8, centerx + 8, centery + 8);
+		pg.line(centerx - 8, centery + 8, centerx + 8, centery - 8);
 
 	}
 
-	// Checks whether this quake occurred on land. If it did, it sets the
-	// "country" property of its PointFeature to the country where it occurred
-	// and returns true. Notice that the helper method isInCountry will
-	// set this "country" property already. Otherwise it returns false.
-	private boolean isLand(PointFeature earthquake) {
-
-		// IMPLEMENT THIS: loop over all countries to check if location is in
-		// any of them
-		// If it is, add 1 to the entry in countryQuakes corresponding to this
-		// country.
-		for (Marker country : countryMarkers) {
-			if (isInCountry(earthquake, country)) {
-				return true;
+	// prints countries with number of earthquakes
+	// The counts come from the country of the land quakes, so the
+	// country markers are not needed when the quakes come from the snapshot
+	private void printQuakes() {
+		int totalWaterQuakes = quakeMarkers.size();
+		Map<String, Integer> countryQuakes = new TreeMap<String, Integer>();
+		for (Marker marker : quakeMarkers) {
+			EarthquakeMarker eqMarker = (EarthquakeMarker) marker;
+			if (eqMarker.isOnLand()) {
+				String countryName = eqMarker.getCountry();
+				Integer numQuakes = countryQuakes.get(countryName);
+				countryQuakes.put(countryName, numQuakes == null ? 1 : numQuakes + 1);
+				totalWaterQuakes--;
 			}
 		}
+		for (Map.Entry<String, Integer> entry : countryQuakes.entrySet()) {
+			System.out.println(entry.getKey() + ": " + entry.getValue());
+		}
+		System.out.println("OCEAN QUAKES: " + totalWaterQuakes);
+	}
 
-		// not inside any country
-		return false;
+	/**
+	 * The historical quakes follow the view once the mouse is released.
+	 */
+	@Override
+	public void mouseReleased() {
+		requestRedraw();
 	}
 
-	// prints countries with number of earthquakes
-	private void printQuakes() {
-		int totalWaterQuakes = quakeMarkers.size();
-		for (Marker country : countryMarkers) {
-			String countryName = country.getStringProperty("name");
-			int numQuakes = 0;
-			for (Marker marker : quakeMarkers) {
-				EarthquakeMarker eqMarker = (EarthquakeMarker) marker;
-				if (eqMarker.isOnLand()) {
-					if (countryName.equals(eqMarker.getStringProperty("country"))) {
-						numQuakes++;
-					}
-				}
-			}
-			if (numQuakes > 0) {
-				totalWaterQuakes -= numQuakes;
-				System.out.println(countryName + ": " + numQuakes);
+	/**
+	 * Key h switches between the live feeds and the historical catalog, key
+	 * p starts and stops the playback of the quakes shown, key i shows and
+	 * hides the timings.
+	 */
+	@Override
+	public void keyPressed() {
+		requestRedraw();
+		if (key == 'h') {
+			toggleHistorical();
+		} else if (key == 'p') {
+			togglePlayback();
+		} else if (key == 'i') {
+			hud.toggle();
+		}
+	}
+
+	private void toggleHistorical() {
+		if (mapMode == Mode.HISTORICAL) {
+			if (lastClicked != null) {
+				unhideAllMarkers();
+				lastClicked.setClicked(false);
+				lastClicked = null;
 			}
+			installLayer(refresher != null ? refresher.getLatest() : liveLayer);
+			liveLayer = null;
+			mapMode = Mode.DEFAULT;
+			System.out.println("Exiting Mode.HISTORICAL");
+		} else if (mapMode == Mode.DEFAULT && lastClicked == null && startup == null && openHistoricalCatalog()) {
+			liveLayer = quakeLayer;
+			mapMode = Mode.HISTORICAL;
+			openHistoricalOverlay();
+			System.out.println("Setting HISTORICAL, " + historicalCatalog.size() + " quakes in the catalog");
+
+			// no quakes until the first query is done, and none of the last
+			// time historical quakes were shown
+			historicalLayer = historicalQuakes.getLatest();
+			installLayer(QuakeLayer.build(Collections.<Marker> emptyList(), cityMarkers));
+			requestHistoricalQuakes();
 		}
-		System.out.println("OCEAN QUAKES: " + totalWaterQuakes);
 	}
 
-	// helper method to test whether a given earthquake is in a given country
-	// This will also add the country property to the properties of the
-	// earthquake feature if
-	// it's in one of the countries.
-	// You should not have to modify this code
-	private boolean isInCountry(PointFeature earthquake, Marker country) {
-		// getting location of feature
-		Location checkLoc = earthquake.getLocation();
+	private void togglePlayback() {
+		if (mapMode == Mode.PLAYBACK) {
+			player = null;
+			quakeManager.setTimeline(null);
+			installLayer(quakeLayer);
+			mapMode = playbackReturnMode;
+			System.out.println("Exiting Mode.PLAYBACK");
+		} else if ((mapMode == Mode.DEFAULT || mapMode == Mode.HISTORICAL) && lastClicked == null && startup == null) {
+			long window = mapMode == Mode.HISTORICAL ? HISTORICAL_PLAYBACK_WINDOW : LIVE_PLAYBACK_WINDOW;
+			player = new TimelinePlayer(quakeMarkers, window, PLAYBACK_MILLIS);
+			quakeManager.setTimeline(player);
+			playbackReturnMode = mapMode;
+			mapMode = Mode.PLAYBACK;
+			lastPlaybackMillis = millis();
+			System.out.println("Setting PLAYBACK");
+		}
+	}
 
-		// some countries represented it as MultiMarker
-		// looping over SimplePolygonMarkers which make them up to use
-		// isInsideByLoc
-		if (country.getClass() == MultiMarker.class) {
+	// Moves the playback on by the time since the last frame. Only the
+	// quakes which became active or expired are looked at; the quake
+	// manager draws the active ones from the batches of the player's
+	// buckets, and it and the hit grid get a view of them.
+	private void advancePlayback() {
+		if (mapMode != Mode.PLAYBACK) {
+			return;
+		}
 
-			// looping over markers making up MultiMarker
-			for (Marker marker : ((MultiMarker) country).getMarkers()) {
+		int now = millis();
+		player.advance(now - lastPlaybackMillis);
+		lastPlaybackMillis = now;
+		if (player.isFinished()) {
+			player.rewind();
+		}
 
-				// checking if inside
-				if (((AbstractShapeMarker) marker).isInsideByLocation(checkLoc)) {
-					earthquake.addProperty("country", country.getProperty("name"));
+		showQuakes(player.getActive(), player.getActive());
+	}
 
-					// return if is inside one
-					return true;
-				}
+	// Dense groups of quakes are drawn as clusters, as long as no marker is
+	// clicked; a clicked marker shows the single quakes around it
+	private void updateShownQuakes() {
+		if (mapMode == Mode.PLAYBACK) {
+			return;
+		}
+		if (overlayShown()) {
+			// the overlay tiles draw the quakes, but they are still hit
+			showQuakes(Collections.<Marker> emptyList(), quakeLayer.getClusters().markersAt(map.getZoomLevel()));
+		} else if (lastClicked == null && (mapMode == Mode.DEFAULT || mapMode == Mode.HISTORICAL)) {
+			List<Marker> clusters = quakeLayer.getClusters().markersAt(map.getZoomLevel());
+			showQuakes(clusters, clusters);
+		} else {
+			showQuakes(quakeMarkers, quakeMarkers);
+		}
+	}
+
+	private void showQuakes(List<Marker> drawn, List<Marker> hit) {
+		if (drawn != shownQuakes) {
+			shownQuakes = drawn;
+			quakeManager.setMarkers(drawn);
+		}
+		if (hit != hitQuakes) {
+			hitQuakes = hit;
+			quakeHitGrid.setMarkers(hit);
+		}
+	}
+
+	private boolean openHistoricalCatalog() {
+		if (historicalCatalog == null) {
+			try {
+				historicalCatalog = new HistoricalCatalog(dataFile(historicalDirectory));
+			} catch (IOException e) {
+				System.out.println("Could not open the historical catalog: " + e.getMessage());
+				return false;
 			}
+			historicalQuakes = new HistoricalQuakeLoader(this, historicalCatalog, cityMarkers, countryData, classifier,
+					HISTORICAL_QUAKES_SHOWN);
+			if (redraws != null) {
+				historicalQuakes.setListener(redraws::request);
+			}
+		}
+		return true;
+	}
+
+	// Installs the newest layer of the historical loader, and asks it for
+	// the quakes of the view once the map has been panned or zoomed and has
+	// settled: the mouse is released and the view has not changed for
+	// HISTORICAL_SETTLE_MILLIS. Like a refresh, it waits while a marker is
+	// clicked
+	private void followHistoricalView() {
+		if (mapMode != Mode.HISTORICAL || lastClicked != null) {
+			return;
 		}
 
-		// check if inside country represented by SimplePolygonMarker
-		else if (((AbstractShapeMarker) country).isInsideByLocation(checkLoc)) {
-			earthquake.addProperty("country", country.getProperty("name"));
+		QuakeLayer latest = historicalQuakes.getLatest();
+		if (latest != historicalLayer) {
+			historicalLayer = latest;
+			installLayer(latest);
+		}
 
-			return true;
+		Location center = map.getCenter();
+		if (!isView(center, map.getZoom(), viewCenter, viewZoom)) {
+			viewCenter = center;
+			viewZoom = map.getZoom();
+			viewChangedAt = millis();
+		} else if (historicalViewSettling() && millis() - viewChangedAt >= HISTORICAL_SETTLE_MILLIS) {
+			requestHistoricalQuakes();
 		}
-		return false;
 	}
 
-	private void distanceToCustomLocation(Marker customMarker) {
+	// Whether the historical quakes are waiting for the view to settle
+	private boolean historicalViewSettling() {
+		return mapMode == Mode.HISTORICAL && !mousePressed && lastClicked == null && !overlayShown()
+				&& !isView(map.getCenter(), map.getZoom(), historicalCenter, historicalZoom);
+	}
 
-		List<Entry<String, Float>> linkedList = new LinkedList<Entry<String, Float>>();
+	private static boolean isView(Location center, float zoom, Location otherCenter, float otherZoom) {
+		return otherCenter != null && zoom == otherZoom && center.getLat() == otherCenter.getLat()
+				&& center.getLon() == otherCenter.getLon();
+	}
 
-		float smallestDistance = (float) quakeMarkers.get(0).getDistanceTo(customMarker.getLocation());
-		Marker nearestEarthquake = null;
+	// Whether the overlay tiles are drawn instead of the historical markers
+	private boolean overlayShown() {
+		return overlayMap != null && mapMode == Mode.HISTORICAL && lastClicked == null
+				&& map.getZoomLevel() <= overlayTiles.getMaxZoom();
+	}
 
-		for (Marker quake : quakeMarkers) {
+	// The overlay map shows the same view as the map
+	private void followOverlayView() {
+		if (overlayMap.getZoom() != map.getZoom()) {
+			overlayMap.zoomTo(map.getZoom());
+		}
+		Location center = map.getCenter();
+		Location overlayCenter = overlayMap.getCenter();
+		if (center.getLat() != overlayCenter.getLat() || center.getLon() != overlayCenter.getLon()) {
+			overlayMap.panTo(center);
+		}
+	}
 
-			String title = quake.getProperty("title").toString();
-			float distance = (float) quake.getDistanceTo(customMarker.getLocation());
-			Map.Entry<String, Float> entry = new AbstractMap.SimpleEntry<String, Float>(title, distance);
-			linkedList.add(entry);
+	private void openHistoricalOverlay() {
+		if (overlayMap != null || !new File(dataPath(historicalOverlayFile)).isFile()) {
+			return;
+		}
+		overlayTiles = new OverlayTileProvider(dataPath(historicalOverlayFile), OVERLAY_CACHE_TILES);
+		if (overlayTiles.getMaxZoom() < 0) {
+			return;
+		}
+		overlayMap = new UnfoldingMap(this, map.mapDisplay.offsetX, map.mapDisplay.offsetY, map.mapDisplay.getWidth(),
+				map.mapDisplay.getHeight(), overlayTiles);
+		overlayMap.setTweening(false);
+		overlayMap.setBackgroundColor(null);
+	}
 
-			if (distance < smallestDistance) {
-				smallestDistance = distance;
-				nearestEarthquake = quake;
-			}
+	// Asks for the largest historical quakes inside the map view. Only these
+	// become markers; the rest of the catalog stays on disk.
+	private void requestHistoricalQuakes() {
+		historicalCenter = map.getCenter();
+		historicalZoom = map.getZoom();
+
+		Location topLeft = map.getTopLeftBorder();
+		Location bottomRight = map.getBottomRightBorder();
+		float minLat = Math.max(-90, bottomRight.getLat());
+		float maxLat = Math.min(90, topLeft.getLat());
+		float minLon = -180;
+		float maxLon = 180;
+		if (bottomRight.getLon() - topLeft.getLon() < 360) {
+			minLon = wrapLongitude(topLeft.getLon());
+			maxLon = wrapLongitude(bottomRight.getLon());
 		}
 
-		System.out.println("smallestDistance " + smallestDistance + "nearestEarthquake: "
-				+ nearestEarthquake.getProperty("title").toString());
+		historicalQuakes.request(minLat, maxLat, minLon, maxLon);
+	}
 
-		// sort the list defining in a Comparator class how to compare the
-		// distances
-		Collections.sort(linkedList, new Comparator<Entry<String, Float>>() {
+	private static float wrapLongitude(float lon) {
+		return ((lon + 180) % 360 + 360) % 360 - 180;
+	}
 
-			@Override
-			public int compare(Entry<String, Float> o1, Entry<String, Float> o2) {
+	private void distanceToCustomLocation(Marker customMarker) {
 
-				return o1.getValue().compareTo(o2.getValue());
-			}
-		});
+		// the k-d tree only looks at the quakes near the location instead of
+		// measuring and sorting the distances to all of them
+		Location location = customMarker.getLocation();
+		Object event = FlightEvents.beginNearestQuakes();
+		SphericalKdTree.Neighbours nearest = quakeTree.nearest(location, NEAREST_QUAKES_TO_PRINT);
+		FlightEvents.endNearestQuakes(event, location.getLat(), location.getLon(), nearest.size(),
+				nearest.size() > 0 ? nearest.distance(0) : -1);
+		if (nearest.size() == 0) {
+			return;
+		}
+
+		Marker nearestEarthquake = quakeMarkers.get(nearest.index(0));
+		System.out.println("smallestDistance " + (float) nearest.distance(0) + "nearestEarthquake: "
+				+ nearestEarthquake.getProperty("title").toString());
 
 		System.out.println("\n\n\n The earthquakes nearest to your custom location: \n");
-		for (Entry<String, Float> entry : linkedList) {
+		for (int i = 0; i < nearest.size(); i++) {
 
-			String key = entry.getKey();
-			Float value = entry.getValue();
-			System.out.printf("%5.0f km   %s%n", value, key);
+			String title = quakeMarkers.get(nearest.index(i)).getProperty("title").toString();
+			System.out.printf("%5.0f km   %s%n", nearest.distance(i), title);
 		}
 
 		showNearestQuakeOnMap(nearestEarthquake);
@@ -615,37 +1035,65 @@ public class EarthquakeCityMap extends PApplet {
 		quake.setHidden(false);
 	}
 
-	private void addNearestQuakeMenu(String text1, String text2, String text3) {
+	private void addNearestQuakeMenu(PGraphics pg, String text1, String text2, String text3) {
 
 		int xbase = 25;
 		int ybase = 300;
 
 		if (mapMode == Mode.DEFAULT) {
 
-			fill(255, 250, 240);
-			rect(xbase, ybase, 150, 120);
+			pg.fill(255, 250, 240);
+			pg.rect(xbase, ybase, 150, 120);
 
-			fill(0);
-			textAlign(LEFT, CENTER);
-			textSize(12);
-			text(text1, xbase + 8, ybase + 18);
-			text(text2, xbase + 8, ybase + 32);
-			text(text3, xbase + 8, ybase + 46);
+			pg.fill(0);
+			pg.textAlign(LEFT, CENTER);
+			pg.textSize(12);
+			pg.text(text1, xbase + 8, ybase + 18);
+			pg.text(text2, xbase + 8, ybase + 32);
+			pg.text(text3, xbase + 8, ybase + 46);
 
-			fill(CommonMarker.ORANGE);
-			rect(xbase + 55, ybase + 70, 35, 35);
+			pg.fill(CommonMarker.ORANGE);
+			pg.rect(xbase + 55, ybase + 70, 35, 35);
 		} else if (mapMode == Mode.CUSTOM_LOCATION) {
 
-			fill(CommonMarker.ORANGE);
-			rect(xbase, ybase, 150, 120);
+			pg.fill(CommonMarker.ORANGE);
+			pg.rect(xbase, ybase, 150, 120);
+
+			pg.fill(0);
+			pg.textAlign(LEFT, CENTER);
+			pg.textSize(12);
+			pg.text("Now click on the map.", xbase + 8, ybase + 18);
+			pg.text("Then click again to", xbase + 8, ybase + 52);
+			pg.text("return to the default", xbase + 8, ybase + 66);
+
+		} else if (mapMode == Mode.HISTORICAL) {
 
-			fill(0);
-			textAlign(LEFT, CENTER);
-			textSize(12);
-			text("Now click on the map.", xbase + 8, ybase + 18);
-			text("Then click again to", xbase + 8, ybase + 52);
-			text("return to the default", xbase + 8, ybase + 66);
+			pg.fill(255, 250, 240);
+			pg.rect(xbase, ybase, 150, 120);
 
+			pg.fill(0);
+			pg.textAlign(LEFT, CENTER);
+			pg.textSize(12);
+			pg.text("Historical quakes:", xbase + 8, ybase + 18);
+			if (overlayShown()) {
+				pg.text("all of them, as tiles", xbase + 8, ybase + 32);
+			} else {
+				pg.text("the largest " + quakeMarkers.size() + " in view", xbase + 8, ybase + 32);
+			}
+			pg.text("Press h to return", xbase + 8, ybase + 66);
+			pg.text("to the live feed", xbase + 8, ybase + 80);
+		} else if (mapMode == Mode.PLAYBACK) {
+
+			pg.fill(255, 250, 240);
+			pg.rect(xbase, ybase, 150, 120);
+
+			pg.fill(0);
+			pg.textAlign(LEFT, CENTER);
+			pg.textSize(12);
+			pg.text("Playback", xbase + 8, ybase + 18);
+			pg.text(Instant.ofEpochMilli(player.getClock()).toString().substring(0, 10) + " UTC", xbase + 8, ybase + 32);
+			pg.text(player.getActive().size() + " quakes", xbase + 8, ybase + 46);
+			pg.text("Press p to stop", xbase + 8, ybase + 80);
 		}
 
 	}
@@ -1,10 +1,13 @@
 package com.ustrzycki.unfoldingmaps.earthquakes;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import de.fhpotsdam.unfolding.UnfoldingMap;
 import de.fhpotsdam.unfolding.data.PointFeature;
+import parsing.QuakeFeature;
+import parsing.QuakeRecord;
 import processing.core.PConstants;
 import processing.core.PGraphics;
 
@@ -19,6 +22,15 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 {
 	
 	protected List<CityMarker> threatenedCities = new ArrayList<CityMarker>();
+	
+	// Typed data of the quake; the getters below read from it, so drawing
+	// and sorting do not look anything up in the properties
+	protected final QuakeRecord record;
+	
+	// The feature this marker was made of. Its properties are only turned
+	// into the property map of this marker if somebody asks for them
+	private final QuakeFeature feature;
+	private boolean propertiesBuilt = false;
 	protected UnfoldingMap markersMap;
 	
 	// Did the earthquake occur on land?  This will be set by the subclasses.
@@ -30,9 +42,6 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 	// based on magnitude. 
 	protected float radius;
 	
-	// constants for distance
-	protected static final float kmPerMile = 1.6f;
-	
 	/** Greater than or equal to this threshold is a moderate earthquake */
 	public static final float THRESHOLD_MODERATE = 5;
 	/** Greater than or equal to this threshold is a light earthquake */
@@ -54,24 +63,15 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 	public EarthquakeMarker (PointFeature feature) 
 	{
 		super(feature.getLocation());
-		// Add a radius property and then set the properties
-		java.util.HashMap<String, Object> properties = feature.getProperties();
-		float magnitude = Float.parseFloat(properties.get("magnitude").toString());
-		properties.put("radius", 2*magnitude );
-		setProperties(properties);
-		this.radius = 1.75f*getMagnitude(); 
+		this.feature = QuakeFeature.of(feature);
+		this.record = this.feature.getRecord();
+		this.radius = 1.75f*record.getMagnitude(); 
 	}
 	
 	
 	 @Override
 	public int compareTo(EarthquakeMarker marker){
-		 
-		 if (this.getMagnitude() < marker.getMagnitude())
-			 return -1;
-		 else if (this.getMagnitude() > marker.getMagnitude())
-			 return 1;
-		 else 		 
-			 return 0;
+		 return Float.compare(record.getMagnitude(), marker.record.getMagnitude());
 	 }
 
 	// calls abstract method drawEarthquake and then checks age and draws X if needed
@@ -87,8 +87,7 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 		drawEarthquake(pg, x, y);
 		
 		// IMPLEMENT: add X over marker if within past day		
-		String age = getStringProperty("age");
-		if ("Past Hour".equals(age) || "Past Day".equals(age)) {
+		if (record.isRecent()) {
 			
 			pg.strokeWeight(2);
 			int buffer = 2;
@@ -112,7 +111,7 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 	@Override
 	public void showTitle(PGraphics pg, float x, float y)
 	{
-		String s = getStringProperty("title");
+		String s = getTitle();
 		int length = s.length();
 		
 		pg.fill(TITLE_BOX_YELLOW);
@@ -133,15 +132,13 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 	 *  or predictive applications.
 	 */
 	public double threatCircle() {	
-		double miles = 20.0f * Math.pow(1.8, 2*getMagnitude()-5);
-		double km = (miles * kmPerMile);
-		return km;
+		return record.getThreatRadius();
 	}
 	
 	// determine color of marker from depth
 	// We use: Deep = red, intermediate = blue, shallow = yellow
 	private void colorDetermine(PGraphics pg) {
-		float depth = getDepth();
+		float depth = record.getDepth();
 		
 		if (depth < THRESHOLD_INTERMEDIATE) {
 			pg.fill(255, 255, 0);
@@ -163,20 +160,30 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 	 */
 	
 	public float getMagnitude() {
-		return Float.parseFloat(getProperty("magnitude").toString());
+		return record.getMagnitude();
 	}
 	
 	public float getDepth() {
-		return Float.parseFloat(getProperty("depth").toString());	
+		return record.getDepth();	
 	}
 	
 	public String getTitle() {
-		return (String) getProperty("title");	
+		return record.getTitle();	
 		
 	}
 	
 	public float getRadius() {
-		return Float.parseFloat(getProperty("radius").toString());
+		return 2*record.getMagnitude();
+	}
+	
+	public QuakeRecord getRecord() {
+		return record;
+	}
+	
+	// Returns the country of a land quake, null for an ocean quake. Read
+	// from the feature, so the property map is not built for it
+	public String getCountry() {
+		return feature.getCountry();
 	}
 	
 	public boolean isOnLand()
@@ -191,6 +198,10 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 		
 	}
 	
+	public void clearThreatenedCities(){
+		threatenedCities.clear();
+	}
+	
 	public void setMarkersMap(UnfoldingMap map){
 		markersMap = map;
 	}
@@ -199,6 +210,50 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 		return markersMap;
 	}
 	
+	
+	/*
+	 * The property map is a compatibility view: the properties of the
+	 * feature plus the "radius" property, built on first use.
+	 */
+	
+	@Override
+	public HashMap<String, Object> getProperties() {
+		if (!propertiesBuilt) {
+			properties = feature.getProperties();
+			properties.put("radius", getRadius());
+			propertiesBuilt = true;
+		}
+		return properties;
+	}
+	
+	@Override
+	public void setProperties(HashMap<String, Object> properties) {
+		this.properties = properties;
+		propertiesBuilt = true;
+	}
+	
+	@Override
+	public Object setProperty(String key, Object value) {
+		return getProperties().put(key, value);
+	}
+	
+	@Override
+	public Object getProperty(String key) {
+		return getProperties().get(key);
+	}
+	
+	@Override
+	public String getStringProperty(String key) {
+		Object value = getProperty(key);
+		return value instanceof String ? (String) value : null;
+	}
+	
+	@Override
+	public Integer getIntegerProperty(String key) {
+		Object value = getProperty(key);
+		return value instanceof Integer ? (Integer) value : null;
+	}
+	
 
 	
 	
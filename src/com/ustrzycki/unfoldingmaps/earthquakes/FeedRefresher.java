@@ -0,0 +1,135 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import processing.core.PApplet;
+
+/**
+ * Polls the earthquake feeds on a background thread.
+ *
+ * Every refresh loads the feeds, classifies the new quakes and makes the
+ * next QuakeLayer, all off the animation thread. The finished layer is then
+ * published with a single atomic reference swap. The sketch picks it up in
+ * draw() with getLatest(), so it never waits for a refresh and never sees
+ * a layer which is only partly built.
+ *
+ * The feeds are parsed while they download. When none of them has changed
+ * since the last refresh, the parsed quakes are dropped and nothing is
+ * classified or built. Otherwise the quakes are applied to a QuakeCatalog
+ * as a delta, so only the new and updated entries get new markers.
+ *
+ * @author DariuszUstrzycki
+ */
+public class FeedRefresher {
+
+	private final PApplet applet;
+	private final MultiFeedLoader feeds;
+
+	// The classifier is only built when the first refresh needs it, if the
+	// sketch did not need one itself (the quakes came from the snapshot)
+	private final byte[] countryData;
+	private QuakeClassifier classifier;
+
+	private final AtomicReference<QuakeLayer> latest;
+
+	// told on the refresher thread whenever a new layer is published
+	private volatile Runnable listener = () -> {
+	};
+	private long lastChecksum;
+
+	// the quakes of the last refresh by event id, only used on the refresher thread
+	private final QuakeCatalog catalog;
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "feed-refresher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Creates a refresher of the feeds which starts with the given layer,
+	 * made from the last load of the feeds and the cities. The classifier may
+	 * be null; it is then built from the country data.
+	 */
+	public FeedRefresher(PApplet applet, MultiFeedLoader feeds, byte[] countryData, QuakeClassifier classifier,
+			QuakeLayer initial) {
+		this.applet = applet;
+		this.feeds = feeds;
+		this.countryData = countryData;
+		this.classifier = classifier;
+		this.latest = new AtomicReference<QuakeLayer>(initial);
+		this.lastChecksum = feeds.getChecksum();
+		this.catalog = new QuakeCatalog(initial.getQuakeMarkers());
+	}
+
+	/**
+	 * Starts polling the feed; the first refresh comes after one period.
+	 */
+	public void start(long period, TimeUnit unit) {
+		executor.scheduleWithFixedDelay(this::refresh, period, period, unit);
+	}
+
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Sets what to run, on the refresher thread, after a new layer is
+	 * published.
+	 */
+	public void setListener(Runnable listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns the newest published layer. Never blocks.
+	 */
+	public QuakeLayer getLatest() {
+		return latest.get();
+	}
+
+	private void refresh() {
+		// an exception would cancel all further refreshes, so a failed
+		// refresh is reported and the next one tried as usual
+		try {
+			// after a failed load the catalog is left as it is; the quakes of
+			// the other feeds alone would retire those of the failed one
+			List<PointFeature> earthquakes = feeds.load();
+			if (earthquakes == null || feeds.getChecksum() == lastChecksum) {
+				return;
+			}
+
+			lastChecksum = feeds.getChecksum();
+			if (!catalog.update(earthquakes, getClassifier())) {
+				return;
+			}
+
+			System.out.println("Feeds refreshed: " + catalog.getAdded() + " new, " + catalog.getUpdated()
+					+ " updated, " + catalog.getRetired() + " retired quakes");
+			latest.set(latest.get().update(catalog.getMarkers(), catalog.getRemovedMarkers(),
+					catalog.getAddedMarkers()));
+			listener.run();
+		} catch (RuntimeException e) {
+			System.out.println("Could not refresh the feeds: " + e);
+		}
+	}
+
+	// only called on the refresher thread
+	private QuakeClassifier getClassifier() {
+		if (classifier == null) {
+			List<Feature> countries = GeoJSONReader.loadDataFromJSON(applet, new String(countryData, UTF_8));
+			classifier = new QuakeClassifier(new CountryIndex(MapUtils.createSimpleMarkers(countries)));
+		}
+		return classifier;
+	}
+}
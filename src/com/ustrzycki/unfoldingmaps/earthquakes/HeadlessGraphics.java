@@ -0,0 +1,82 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import processing.core.PFont;
+import processing.core.PGraphicsJava2D;
+
+/**
+ * An off-screen Java2D buffer which works without a PApplet, so without a
+ * window or a display.
+ *
+ * PGraphicsJava2D only needs its parent applet for the font metrics; here
+ * they come from the buffer's own Graphics2D, and the buffer has its own
+ * default font. A buffer must only be used by one thread at a time.
+ *
+ * @author DariuszUstrzycki
+ */
+public class HeadlessGraphics extends PGraphicsJava2D {
+
+	private static final int DEFAULT_FONT_SIZE = 12;
+
+	private final PFont defaultFont = new PFont(new Font(Font.SANS_SERIF, Font.PLAIN, DEFAULT_FONT_SIZE), true);
+
+	public HeadlessGraphics(int width, int height) {
+		setSize(width, height);
+	}
+
+	@Override
+	public void beginDraw() {
+		super.beginDraw();
+		textFont(defaultFont);
+	}
+
+	@Override
+	public float textAscent() {
+		if (textFont == null) {
+			defaultFontOrDeath("textAscent");
+		}
+		return g2.getFontMetrics((Font) textFont.getNative()).getAscent();
+	}
+
+	@Override
+	public float textDescent() {
+		if (textFont == null) {
+			defaultFontOrDeath("textDescent");
+		}
+		return g2.getFontMetrics((Font) textFont.getNative()).getDescent();
+	}
+
+	/**
+	 * Writes what was drawn to a PNG file, creating its directory if needed.
+	 */
+	public void savePng(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		ImageIO.write(toImage(), "png", file);
+	}
+
+	/**
+	 * Returns what was drawn as the bytes of a PNG file.
+	 */
+	public byte[] encodePng() throws IOException {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(toImage(), "png", png);
+		return png.toByteArray();
+	}
+
+	private BufferedImage toImage() {
+		loadPixels();
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, width, height, pixels, 0, width);
+		return image;
+	}
+}
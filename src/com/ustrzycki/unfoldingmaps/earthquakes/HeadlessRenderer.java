@@ -0,0 +1,413 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.AbstractShapeMarker;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MultiMarker;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import parsing.EarthquakeFeedReader;
+import parsing.QuakeFeature;
+import parsing.QuakeRecord;
+import processing.core.PConstants;
+
+/**
+ * Renders the quake map to PNG images without a window, for example on a
+ * server.
+ *
+ * The countries are drawn as the background instead of map tiles, the
+ * quakes and cities on top of them by their own markers, in Web Mercator
+ * like the map of the sketch. Up to QuakeClusters.MAX_CLUSTER_ZOOM the
+ * quakes are clustered the same way too.
+ *
+ * The markers of every zoom level are put into buckets by the tile they
+ * are in, when the zoom level is first rendered, so an image only looks at
+ * the markers of the tiles it overlaps instead of all of them.
+ *
+ * The data is only read by the rendering, so any number of images can be
+ * rendered at the same time, each into its own HeadlessGraphics buffer. A
+ * tile pyramid is rendered by a pool of threads, one buffer per thread,
+ * and only IN_FLIGHT tiles per thread are handed to the pool at a time, so
+ * the memory does not grow with the size of the pyramid.
+ *
+ * As an overlay, the countries and the background are left out and the
+ * images are transparent around the markers, to be drawn over a map.
+ *
+ * Usage: HeadlessRenderer data-directory output-directory [max-zoom [source]]
+ * where the source is a feed file or a historical catalog directory in the
+ * data directory.
+ *
+ * @author DariuszUstrzycki
+ */
+public class HeadlessRenderer {
+
+	/** Width and height of a tile */
+	public static final int TILE_SIZE = 256;
+
+	private static final int OCEAN = 0xFFAAC3D2;
+	private static final int LAND = 0xFFF0EBDC;
+	private static final int BORDER = 0xFFA0A0A0;
+
+	// markers this far outside an image may still reach into it
+	private static final int MARGIN = 40;
+
+	// tiles rendered or waiting to be rendered, per thread of the pool
+	private static final int IN_FLIGHT = 4;
+
+	private final List<Marker> cityMarkers;
+	private final QuakeClusters clusters;
+
+	// the country polygons in Web Mercator coordinates from 0 to 1, x and y
+	// interleaved, with their bounding boxes
+	private final List<double[]> polygons = new ArrayList<double[]>();
+	private final List<double[]> bounds = new ArrayList<double[]>();
+
+	// the quakes and cities of every zoom level rendered so far by tile
+	private final Map<Integer, TileBuckets[]> buckets = new ConcurrentHashMap<Integer, TileBuckets[]>();
+
+	private boolean overlay = false;
+
+	public HeadlessRenderer(List<Marker> countryMarkers, List<Marker> cityMarkers, List<Marker> quakeMarkers) {
+		this.cityMarkers = cityMarkers;
+		this.clusters = QuakeClusters.build(quakeMarkers);
+		for (Marker country : countryMarkers) {
+			addPolygons(country);
+		}
+	}
+
+	/**
+	 * Reads the countries, cities and quakes from the data directory, as the
+	 * sketch does. The quakes come from the feed file or, if the source is a
+	 * directory, from all of the historical catalog in it.
+	 */
+	public static HeadlessRenderer load(File dataDirectory, String source) throws IOException {
+		String countryData = new String(Files.readAllBytes(new File(dataDirectory, "countries-geo.json").toPath()), UTF_8);
+		String cityData = new String(Files.readAllBytes(new File(dataDirectory, "city-data.json").toPath()), UTF_8);
+
+		List<Marker> countryMarkers = MapUtils.createSimpleMarkers(GeoJSONReader.loadDataFromJSON(null, countryData));
+
+		List<Marker> cityMarkers = new ArrayList<Marker>();
+		for (Feature city : GeoJSONReader.loadDataFromJSON(null, cityData)) {
+			cityMarkers.add(new CityMarker(city));
+		}
+
+		List<PointFeature> earthquakes = new ArrayList<PointFeature>();
+		File sourceFile = new File(dataDirectory, source);
+		if (sourceFile.isDirectory()) {
+			HistoricalCatalog catalog = new HistoricalCatalog(sourceFile);
+			for (QuakeRecord record : catalog.largest(Long.MIN_VALUE, Long.MAX_VALUE, -90, 90, -180, 180,
+					(int) Math.min(catalog.size(), Integer.MAX_VALUE))) {
+				earthquakes.add(new QuakeFeature(record));
+			}
+		} else {
+			try (InputStream input = new FileInputStream(sourceFile);
+					EarthquakeFeedReader reader = new EarthquakeFeedReader(input, source)) {
+				while (reader.hasNext()) {
+					earthquakes.add(reader.next());
+				}
+			}
+		}
+		List<Marker> quakeMarkers = new QuakeClassifier(new CountryIndex(countryMarkers)).classify(earthquakes);
+
+		return new HeadlessRenderer(countryMarkers, cityMarkers, quakeMarkers);
+	}
+
+	/**
+	 * Sets whether to render only the markers, on a transparent background.
+	 */
+	public void setOverlay(boolean overlay) {
+		this.overlay = overlay;
+	}
+
+	/**
+	 * Renders the map around the center at the zoom level into the buffer.
+	 */
+	public void renderView(HeadlessGraphics pg, Location center, int zoom) {
+		double world = worldSize(zoom);
+		double left = QuakeClusters.mercatorX(center.getLon()) * world - pg.width / 2.0;
+		double top = QuakeClusters.mercatorY(center.getLat()) * world - pg.height / 2.0;
+		render(pg, left, top, zoom);
+	}
+
+	/**
+	 * Renders the tile x, y of the zoom level, in the usual z/x/y numbering,
+	 * into a buffer of TILE_SIZE. Returns the number of markers drawn.
+	 */
+	public int renderTile(HeadlessGraphics pg, int zoom, int x, int y) {
+		return render(pg, (double) x * TILE_SIZE, (double) y * TILE_SIZE, zoom);
+	}
+
+	/**
+	 * Renders all the tiles of the zoom levels 0 to maxZoom on the given
+	 * number of threads and writes them to directory/z/x/y.png. Returns the
+	 * number of tiles.
+	 */
+	public int renderTiles(File directory, int maxZoom, int threads) throws IOException {
+		ThreadLocal<HeadlessGraphics> buffers = ThreadLocal.withInitial(() -> new HeadlessGraphics(TILE_SIZE, TILE_SIZE));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			CompletionService<Void> rendered = new ExecutorCompletionService<Void>(executor);
+			int inFlight = 0;
+			int tiles = 0;
+			for (int zoom = 0; zoom <= maxZoom; zoom++) {
+				for (int x = 0; x < 1 << zoom; x++) {
+					for (int y = 0; y < 1 << zoom; y++) {
+						if (inFlight == IN_FLIGHT * threads) {
+							rendered.take().get();
+							inFlight--;
+						}
+
+						int z = zoom, tx = x, ty = y;
+						rendered.submit(() -> {
+							HeadlessGraphics pg = buffers.get();
+							renderTile(pg, z, tx, ty);
+							pg.savePng(new File(directory, z + File.separator + tx + File.separator + ty + ".png"));
+							return null;
+						});
+						inFlight++;
+						tiles++;
+					}
+				}
+			}
+			for (; inFlight > 0; inFlight--) {
+				rendered.take().get();
+			}
+			return tiles;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while rendering the tiles", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not render a tile", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// Renders the area whose top left corner is at left, top in the pixels
+	// of the whole world at the zoom level, returns the number of markers
+	private int render(HeadlessGraphics pg, double left, double top, int zoom) {
+		double world = worldSize(zoom);
+		TileBuckets[] markers = buckets.computeIfAbsent(zoom, z -> new TileBuckets[] {
+				new TileBuckets(clusters.markersAt(z), z), new TileBuckets(cityMarkers, z) });
+
+		// the world repeats to the left and right
+		long firstCopy = (long) Math.floor(left / world);
+		long lastCopy = (long) Math.floor((left + pg.width) / world);
+
+		pg.beginDraw();
+		if (overlay) {
+			pg.clear();
+		} else {
+			pg.background(OCEAN);
+			for (long copy = firstCopy; copy <= lastCopy; copy++) {
+				drawCountries(pg, copy * world - left, -top, world);
+			}
+		}
+
+		int drawn = 0;
+		pg.stroke(0);
+		pg.strokeWeight(1);
+		for (long copy = firstCopy; copy <= lastCopy; copy++) {
+			drawn += drawMarkers(pg, markers[0], copy * world - left, -top, world);
+			drawn += drawMarkers(pg, markers[1], copy * world - left, -top, world);
+		}
+
+		pg.endDraw();
+		return drawn;
+	}
+
+	private void drawCountries(HeadlessGraphics pg, double x0, double y0, double world) {
+		pg.fill(LAND);
+		pg.stroke(BORDER);
+		pg.strokeWeight(1);
+
+		for (int p = 0; p < polygons.size(); p++) {
+			double[] box = bounds.get(p);
+			if (x0 + box[2] * world < 0 || x0 + box[0] * world > pg.width || y0 + box[3] * world < 0
+					|| y0 + box[1] * world > pg.height) {
+				continue;
+			}
+
+			double[] points = polygons.get(p);
+			pg.beginShape();
+			for (int i = 0; i < points.length; i += 2) {
+				pg.vertex((float) (x0 + points[i] * world), (float) (y0 + points[i + 1] * world));
+			}
+			pg.endShape(PConstants.CLOSE);
+		}
+	}
+
+	private static int drawMarkers(HeadlessGraphics pg, TileBuckets buckets, double x0, double y0, double world) {
+		int drawn = 0;
+		for (int i : buckets.near(-x0 - MARGIN, -y0 - MARGIN, -x0 + pg.width + MARGIN, -y0 + pg.height + MARGIN)) {
+			Marker marker = buckets.markers.get(i);
+			Location location = marker.getLocation();
+			float x = (float) (x0 + QuakeClusters.mercatorX(location.getLon()) * world);
+			float y = (float) (y0 + QuakeClusters.mercatorY(location.getLat()) * world);
+			if (x >= -MARGIN && x <= pg.width + MARGIN && y >= -MARGIN && y <= pg.height + MARGIN) {
+				((CommonMarker) marker).draw(pg, x, y);
+				drawn++;
+			}
+		}
+		return drawn;
+	}
+
+	// some countries are represented as MultiMarkers, made up of polygons
+	private void addPolygons(Marker country) {
+		if (country instanceof MultiMarker) {
+			for (Marker marker : ((MultiMarker) country).getMarkers()) {
+				addPolygons(marker);
+			}
+		} else if (country instanceof AbstractShapeMarker) {
+			List<Location> locations = ((AbstractShapeMarker) country).getLocations();
+			double[] points = new double[2 * locations.size()];
+			double[] box = { 1, 1, 0, 0 };
+			for (int i = 0; i < locations.size(); i++) {
+				points[2 * i] = QuakeClusters.mercatorX(locations.get(i).getLon());
+				points[2 * i + 1] = QuakeClusters.mercatorY(locations.get(i).getLat());
+				box[0] = Math.min(box[0], points[2 * i]);
+				box[1] = Math.min(box[1], points[2 * i + 1]);
+				box[2] = Math.max(box[2], points[2 * i]);
+				box[3] = Math.max(box[3], points[2 * i + 1]);
+			}
+			polygons.add(points);
+			bounds.add(box);
+		}
+	}
+
+	private static double worldSize(int zoom) {
+		return TILE_SIZE * Math.pow(2, zoom);
+	}
+
+	/*
+	 * The markers of a list sorted by the tile they are in at one zoom
+	 * level, row by row.
+	 */
+	private static class TileBuckets {
+		final List<Marker> markers;
+		final int tiles;
+
+		// the tile of every marker, sorted, and the index of the marker
+		final long[] keys;
+		final int[] order;
+
+		TileBuckets(List<Marker> markers, int zoom) {
+			this.markers = markers;
+			this.tiles = 1 << zoom;
+			double world = worldSize(zoom);
+
+			long[] tileOf = new long[markers.size()];
+			Integer[] sorted = new Integer[markers.size()];
+			for (int i = 0; i < markers.size(); i++) {
+				Location location = markers.get(i).getLocation();
+				long column = clamp(QuakeClusters.mercatorX(location.getLon()) * world);
+				long row = clamp(QuakeClusters.mercatorY(location.getLat()) * world);
+				tileOf[i] = row * tiles + column;
+				sorted[i] = i;
+			}
+			Arrays.sort(sorted, (a, b) -> Long.compare(tileOf[a], tileOf[b]));
+
+			keys = new long[sorted.length];
+			order = new int[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				keys[i] = tileOf[sorted[i]];
+				order[i] = sorted[i];
+			}
+		}
+
+		// Indexes of the markers in the tiles overlapping the area, in
+		// pixels of the world, in the order of the list, so they are drawn
+		// over each other as before
+		int[] near(double left, double top, double right, double bottom) {
+			if (right < 0 || bottom < 0 || left >= tiles * TILE_SIZE || top >= tiles * TILE_SIZE) {
+				return new int[0];
+			}
+			long firstColumn = clamp(left);
+			long lastColumn = clamp(right);
+
+			int[] found = new int[16];
+			int count = 0;
+			for (long row = clamp(top); row <= clamp(bottom); row++) {
+				long last = row * tiles + lastColumn;
+				for (int i = firstAtOrAfter(row * tiles + firstColumn); i < keys.length && keys[i] <= last; i++) {
+					if (count == found.length) {
+						found = Arrays.copyOf(found, 2 * count);
+					}
+					found[count++] = order[i];
+				}
+			}
+			found = Arrays.copyOf(found, count);
+			Arrays.sort(found);
+			return found;
+		}
+
+		// the column or row of the tile of a coordinate in pixels
+		private long clamp(double pixels) {
+			return Math.max(0, Math.min(tiles - 1, (long) Math.floor(pixels / TILE_SIZE)));
+		}
+
+		private int firstAtOrAfter(long key) {
+			int low = 0;
+			int high = keys.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (keys[middle] < key) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Renders a view of the whole world and the tile pyramid up to the
+	 * given zoom level, on all the cores, and prints the throughput.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: HeadlessRenderer data-directory output-directory [max-zoom [source]]");
+			return;
+		}
+
+		File output = new File(args[1]);
+		int maxZoom = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		String source = args.length > 3 ? args[3] : "2.5_week.atom";
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		long start = System.nanoTime();
+		HeadlessRenderer renderer = load(new File(args[0]), source);
+		System.out.println("Loaded the data in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		HeadlessGraphics pg = new HeadlessGraphics(900, 700);
+		renderer.renderView(pg, new Location(20, 0), 2);
+		pg.savePng(new File(output, "world.png"));
+
+		start = System.nanoTime();
+		int tiles = renderer.renderTiles(new File(output, "tiles"), maxZoom, threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Rendered %d tiles on %d threads in %.2f s, %.1f images per second%n", tiles, threads,
+				seconds, tiles / seconds);
+	}
+}
@@ -0,0 +1,271 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import parsing.QuakeRecord;
+
+/**
+ * Catalog of historical earthquakes stored on disk, for Mode.HISTORICAL.
+ *
+ * The catalog is a directory of segment files written by
+ * HistoricalImporter. Each segment holds the quakes of one calendar month
+ * (or part of one), sorted by time, as five columns: time, latitude,
+ * longitude, depth and magnitude. Only the small segment headers are read
+ * when the catalog is opened; the columns are memory-mapped when a query
+ * first needs them, so the heap does not grow with the size of the
+ * catalog.
+ *
+ * A query skips the segments whose time range or bounding box does not
+ * overlap it, and finds its time range inside a segment by binary search
+ * on the time column. The importer splits every month into tiles, so the
+ * bounding boxes are small enough for a query of a zoomed in view to skip
+ * most of the catalog.
+ *
+ * @author DariuszUstrzycki
+ */
+public class HistoricalCatalog {
+
+	static final int MAGIC = 0x45514843; // "EQHC"
+	static final int VERSION = 1;
+	static final String SEGMENT_SUFFIX = ".seg";
+
+	// magic, version, count, min and max time, min and max lat and lon
+	static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 4 * 4;
+
+	private static final DateTimeFormatter TITLE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+			.withZone(ZoneOffset.UTC);
+
+	/** Receives the quakes found by a query */
+	public interface Visitor {
+		void visit(long time, float latitude, float longitude, float depth, float magnitude);
+	}
+
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private long size;
+
+	/**
+	 * Opens the catalog in the directory. Only the segment headers are read.
+	 */
+	public HistoricalCatalog(File directory) throws IOException {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+		if (files == null) {
+			throw new IOException("No historical catalog in " + directory);
+		}
+		Arrays.sort(files);
+
+		for (File file : files) {
+			Segment segment = Segment.open(file);
+			if (segment != null) {
+				segments.add(segment);
+				size += segment.count;
+			}
+		}
+		// the segments of a month may come from different imports
+		segments.sort(Comparator.comparingLong(segment -> segment.minTime));
+	}
+
+	/** Number of quakes in the catalog */
+	public long size() {
+		return size;
+	}
+
+	public int segmentCount() {
+		return segments.size();
+	}
+
+	/** Time of the oldest quake, or QuakeRecord.NO_TIME if the catalog is empty */
+	public long getMinTime() {
+		return segments.isEmpty() ? QuakeRecord.NO_TIME : segments.get(0).minTime;
+	}
+
+	/** Time of the newest quake, or QuakeRecord.NO_TIME if the catalog is empty */
+	public long getMaxTime() {
+		long max = QuakeRecord.NO_TIME;
+		for (Segment segment : segments) {
+			max = Math.max(max, segment.maxTime);
+		}
+		return max;
+	}
+
+	/**
+	 * Visits every quake from fromTime (inclusive) to toTime (exclusive)
+	 * inside the bounding box, segment by segment in time order. A box with
+	 * minLon greater than maxLon crosses the date line. Returns the number
+	 * of quakes visited.
+	 */
+	public long query(long fromTime, long toTime, float minLat, float maxLat, float minLon, float maxLon,
+			Visitor visitor) throws IOException {
+		long visited = 0;
+		for (Segment segment : segments) {
+			if (segment.maxTime < fromTime || segment.minTime >= toTime
+					|| !segment.overlaps(minLat, maxLat, minLon, maxLon)) {
+				continue;
+			}
+
+			ByteBuffer columns = segment.columns();
+			int count = segment.count;
+			int timeAt = HEADER_SIZE;
+			int latAt = timeAt + 8 * count;
+			int lonAt = latAt + 4 * count;
+			int depthAt = lonAt + 4 * count;
+			int magnitudeAt = depthAt + 4 * count;
+
+			int first = firstAtOrAfter(columns, timeAt, count, fromTime);
+			for (int i = first; i < count; i++) {
+				long time = columns.getLong(timeAt + 8 * i);
+				if (time >= toTime) {
+					break;
+				}
+
+				float lat = columns.getFloat(latAt + 4 * i);
+				float lon = columns.getFloat(lonAt + 4 * i);
+				if (lat < minLat || lat > maxLat || !inLongitudes(lon, minLon, maxLon)) {
+					continue;
+				}
+
+				visitor.visit(time, lat, lon, columns.getFloat(depthAt + 4 * i), columns.getFloat(magnitudeAt + 4 * i));
+				visited++;
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Returns the limit largest quakes of the time range and bounding box,
+	 * largest first. Only those records are created, so the result stays
+	 * small however many quakes the query matches.
+	 */
+	public List<QuakeRecord> largest(long fromTime, long toTime, float minLat, float maxLat, float minLon,
+			float maxLon, int limit) throws IOException {
+		PriorityQueue<QuakeRecord> smallestOnTop = new PriorityQueue<QuakeRecord>(Math.max(1, limit),
+				Comparator.comparingDouble(QuakeRecord::getMagnitude));
+
+		if (limit > 0) {
+			query(fromTime, toTime, minLat, maxLat, minLon, maxLon, (time, lat, lon, depth, magnitude) -> {
+				if (smallestOnTop.size() < limit) {
+					smallestOnTop.add(toRecord(time, lat, lon, depth, magnitude));
+				} else if (magnitude > smallestOnTop.peek().getMagnitude()) {
+					smallestOnTop.poll();
+					smallestOnTop.add(toRecord(time, lat, lon, depth, magnitude));
+				}
+			});
+		}
+
+		List<QuakeRecord> result = new ArrayList<QuakeRecord>(smallestOnTop);
+		result.sort(Comparator.comparingDouble(QuakeRecord::getMagnitude).reversed());
+		return result;
+	}
+
+	// a historical quake has no feed entry, so its title is made up like
+	// the feed's: "M 6.1 - 1995-01-16 20:46:52 UTC"
+	private static QuakeRecord toRecord(long time, float lat, float lon, float depth, float magnitude) {
+		String title = String.format(Locale.ROOT, "M %.1f - %s UTC", magnitude,
+				TITLE_TIME.format(Instant.ofEpochMilli(time)));
+		return new QuakeRecord(title, lat, lon, magnitude, depth, QuakeRecord.AGE_UNKNOWN, time);
+	}
+
+	private static boolean inLongitudes(float lon, float minLon, float maxLon) {
+		if (minLon <= maxLon) {
+			return lon >= minLon && lon <= maxLon;
+		}
+		return lon >= minLon || lon <= maxLon;
+	}
+
+	// index of the first time not before the given one
+	private static int firstAtOrAfter(ByteBuffer columns, int timeAt, int count, long time) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (columns.getLong(timeAt + 8 * middle) < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * Header of a segment file; its columns are mapped on first use.
+	 */
+	private static class Segment {
+		final File file;
+		final int count;
+		final long minTime, maxTime;
+		final float minLat, maxLat, minLon, maxLon;
+
+		private MappedByteBuffer columns;
+
+		Segment(File file, int count, long minTime, long maxTime, float minLat, float maxLat, float minLon,
+				float maxLon) {
+			this.file = file;
+			this.count = count;
+			this.minTime = minTime;
+			this.maxTime = maxTime;
+			this.minLat = minLat;
+			this.maxLat = maxLat;
+			this.minLon = minLon;
+			this.maxLon = maxLon;
+		}
+
+		// reads the header; null if the file is not a segment of this version
+		static Segment open(File file) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+					System.out.println("Skipping " + file + ", not a catalog segment");
+					return null;
+				}
+				int count = raf.readInt();
+				if (raf.length() != HEADER_SIZE + 24L * count) {
+					System.out.println("Skipping " + file + ", truncated");
+					return null;
+				}
+				return new Segment(file, count, raf.readLong(), raf.readLong(), raf.readFloat(), raf.readFloat(),
+						raf.readFloat(), raf.readFloat());
+			} finally {
+				raf.close();
+			}
+		}
+
+		boolean overlaps(float queryMinLat, float queryMaxLat, float queryMinLon, float queryMaxLon) {
+			if (maxLat < queryMinLat || minLat > queryMaxLat) {
+				return false;
+			}
+			if (queryMinLon <= queryMaxLon) {
+				return maxLon >= queryMinLon && minLon <= queryMaxLon;
+			}
+			// the query crosses the date line
+			return maxLon >= queryMinLon || minLon <= queryMaxLon;
+		}
+
+		synchronized ByteBuffer columns() throws IOException {
+			if (columns == null) {
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try {
+					FileChannel channel = raf.getChannel();
+					columns = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				} finally {
+					raf.close();
+				}
+			}
+			// absolute reads only, but every caller gets its own view
+			return columns.duplicate();
+		}
+	}
+}
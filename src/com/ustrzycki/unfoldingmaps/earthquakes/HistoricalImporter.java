@@ -0,0 +1,357 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import parsing.EarthquakeFeedReader;
+import parsing.QuakeFeature;
+import parsing.QuakeRecord;
+
+/**
+ * Imports USGS catalog dumps into a HistoricalCatalog directory.
+ *
+ * Both the CSV export of the USGS catalog search (time, latitude,
+ * longitude, depth and mag columns) and Atom feeds are read as streams.
+ * The quakes are gathered per calendar month and tile of TILE_DEGREES
+ * latitude and longitude in primitive arrays, and written out as segments
+ * whenever a month and tile has SEGMENT_ROWS quakes or MAX_BUFFERED quakes
+ * are waiting in all of them together, so an import of any size runs in
+ * bounded memory. As every segment only covers its tile, a query of a
+ * small part of the world skips most of the segments by their bounding
+ * boxes. Quakes without a time are skipped.
+ *
+ * Usage: HistoricalImporter catalogDirectory dump.csv|dump.atom ...
+ *
+ * @author DariuszUstrzycki
+ */
+public class HistoricalImporter {
+
+	// the most quakes in one segment file
+	static final int SEGMENT_ROWS = 1 << 20;
+
+	// the most quakes held in memory before all months are written out
+	private static final int MAX_BUFFERED = 4 << 20;
+
+	// size of a tile, which divides 180 so the tiles cover the world
+	static final int TILE_DEGREES = 45;
+	private static final int TILE_ROWS = 180 / TILE_DEGREES;
+	private static final int TILE_COLUMNS = 360 / TILE_DEGREES;
+
+	private final File directory;
+	private final Map<Integer, Month> months = new HashMap<Integer, Month>();
+	private int buffered;
+	private long imported;
+	private long skipped;
+
+	public HistoricalImporter(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		this.directory = directory;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: HistoricalImporter catalogDirectory dump.csv|dump.atom ...");
+			return;
+		}
+
+		HistoricalImporter importer = new HistoricalImporter(new File(args[0]));
+		for (int i = 1; i < args.length; i++) {
+			System.out.println("Importing " + args[i]);
+			importer.importFile(new File(args[i]));
+		}
+		importer.finish();
+		System.out.println("Imported " + importer.getImported() + " quakes, skipped " + importer.getSkipped());
+	}
+
+	/**
+	 * Imports a dump, as CSV if its name ends with .csv and as an Atom feed
+	 * otherwise.
+	 */
+	public void importFile(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			if (file.getName().toLowerCase().endsWith(".csv")) {
+				importCsv(input);
+			} else {
+				importAtom(input);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Imports the CSV export of the USGS catalog. The columns are found by
+	 * the names in the header line.
+	 */
+	public void importCsv(InputStream input) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, UTF_8));
+		String header = reader.readLine();
+		if (header == null) {
+			return;
+		}
+
+		List<String> names = Arrays.asList(splitCsv(header, Integer.MAX_VALUE));
+		int timeColumn = names.indexOf("time");
+		int latColumn = names.indexOf("latitude");
+		int lonColumn = names.indexOf("longitude");
+		int depthColumn = names.indexOf("depth");
+		int magnitudeColumn = names.indexOf("mag");
+		if (timeColumn < 0 || latColumn < 0 || lonColumn < 0 || magnitudeColumn < 0) {
+			throw new IOException("Not a USGS catalog CSV, header: " + header);
+		}
+		int lastColumn = Math.max(Math.max(timeColumn, Math.max(latColumn, lonColumn)),
+				Math.max(depthColumn, magnitudeColumn));
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] columns = splitCsv(line, lastColumn + 1);
+			try {
+				add(parseTime(columns[timeColumn]), Float.parseFloat(columns[latColumn]),
+						Float.parseFloat(columns[lonColumn]),
+						depthColumn >= 0 && !columns[depthColumn].isEmpty() ? Float.parseFloat(columns[depthColumn]) : 0,
+						Float.parseFloat(columns[magnitudeColumn]));
+			} catch (RuntimeException e) {
+				// a line without time, location or magnitude
+				skipped++;
+			}
+		}
+	}
+
+	/**
+	 * Imports an Atom feed in the format of the USGS feeds.
+	 */
+	public void importAtom(InputStream input) throws IOException {
+		EarthquakeFeedReader reader = new EarthquakeFeedReader(input);
+		try {
+			while (reader.hasNext()) {
+				PointFeature feature = reader.next();
+				QuakeRecord record = QuakeFeature.of(feature).getRecord();
+				if (record.getTime() == QuakeRecord.NO_TIME) {
+					skipped++;
+				} else {
+					add(record.getTime(), record.getLatitude(), record.getLongitude(), record.getDepth(),
+							record.getMagnitude());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Adds one quake.
+	 */
+	public void add(long time, float lat, float lon, float depth, float magnitude) throws IOException {
+		LocalDateTime date = LocalDateTime.ofEpochSecond(Math.floorDiv(time, 1000), 0, ZoneOffset.UTC);
+		int tile = tileOf(lat, lon);
+		int key = (date.getYear() * 12 + date.getMonthValue() - 1) * TILE_ROWS * TILE_COLUMNS + tile;
+
+		Month month = months.get(key);
+		if (month == null) {
+			month = new Month(date.getYear(), date.getMonthValue(), tile);
+			months.put(key, month);
+		}
+		month.add(time, lat, lon, depth, magnitude);
+		buffered++;
+		imported++;
+
+		if (month.size == SEGMENT_ROWS) {
+			buffered -= month.size;
+			month.write(directory);
+			months.remove(key);
+		} else if (buffered >= MAX_BUFFERED) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes out all the quakes still in memory. Must be called at the end
+	 * of an import.
+	 */
+	public void finish() throws IOException {
+		flush();
+	}
+
+	public long getImported() {
+		return imported;
+	}
+
+	public long getSkipped() {
+		return skipped;
+	}
+
+	// a written month is dropped with its arrays, most months are never
+	// added to again in a dump sorted by time
+	private void flush() throws IOException {
+		for (Month month : months.values()) {
+			month.write(directory);
+		}
+		months.clear();
+		buffered = 0;
+	}
+
+	// the tile of the location, row by row from the south pole; the poles
+	// and the date line belong to the tiles next to them
+	static int tileOf(float lat, float lon) {
+		int row = Math.min(TILE_ROWS - 1, Math.max(0, (int) Math.floor((lat + 90) / TILE_DEGREES)));
+		int column = Math.min(TILE_COLUMNS - 1, Math.max(0, (int) Math.floor((lon + 180) / TILE_DEGREES)));
+		return row * TILE_COLUMNS + column;
+	}
+
+	// times like 2015-08-07T19:22:37.000Z, in UTC
+	private static long parseTime(String value) {
+		try {
+			return Instant.parse(value).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return LocalDateTime.parse(value.replace(' ', 'T')).toInstant(ZoneOffset.UTC).toEpochMilli();
+		}
+	}
+
+	// Splits the first columns of a CSV line, allowing quoted values with
+	// commas; the rest of the line is not looked at
+	private static String[] splitCsv(String line, int columns) {
+		List<String> values = new ArrayList<String>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+
+		for (int i = 0; i < line.length() && values.size() < columns; i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (c == ',' && !quoted) {
+				values.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(c);
+			}
+		}
+		if (values.size() < columns) {
+			values.add(value.toString());
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+	/*
+	 * The quakes of one month and tile waiting to be written, as columns.
+	 */
+	private static class Month {
+		static final int INITIAL_CAPACITY = 64;
+
+		final int year;
+		final int month;
+		final int tile;
+
+		int size;
+		long[] times = new long[INITIAL_CAPACITY];
+		float[] lats = new float[INITIAL_CAPACITY];
+		float[] lons = new float[INITIAL_CAPACITY];
+		float[] depths = new float[INITIAL_CAPACITY];
+		float[] magnitudes = new float[INITIAL_CAPACITY];
+
+		Month(int year, int month, int tile) {
+			this.year = year;
+			this.month = month;
+			this.tile = tile;
+		}
+
+		void add(long time, float lat, float lon, float depth, float magnitude) {
+			if (size == times.length) {
+				int capacity = Math.min(2 * size, SEGMENT_ROWS);
+				times = Arrays.copyOf(times, capacity);
+				lats = Arrays.copyOf(lats, capacity);
+				lons = Arrays.copyOf(lons, capacity);
+				depths = Arrays.copyOf(depths, capacity);
+				magnitudes = Arrays.copyOf(magnitudes, capacity);
+			}
+			times[size] = time;
+			lats[size] = lat;
+			lons[size] = lon;
+			depths[size] = depth;
+			magnitudes[size] = magnitude;
+			size++;
+		}
+
+		// writes the quakes as a new segment, sorted by time
+		void write(File directory) throws IOException {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+
+			float minLat = Float.MAX_VALUE, maxLat = -Float.MAX_VALUE;
+			float minLon = Float.MAX_VALUE, maxLon = -Float.MAX_VALUE;
+			for (int i = 0; i < size; i++) {
+				minLat = Math.min(minLat, lats[i]);
+				maxLat = Math.max(maxLat, lats[i]);
+				minLon = Math.min(minLon, lons[i]);
+				maxLon = Math.max(maxLon, lons[i]);
+			}
+
+			File file = nextFile(directory);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				out.writeInt(HistoricalCatalog.MAGIC);
+				out.writeInt(HistoricalCatalog.VERSION);
+				out.writeInt(size);
+				out.writeLong(times[order[0]]);
+				out.writeLong(times[order[size - 1]]);
+				out.writeFloat(minLat);
+				out.writeFloat(maxLat);
+				out.writeFloat(minLon);
+				out.writeFloat(maxLon);
+
+				for (int i : order) {
+					out.writeLong(times[i]);
+				}
+				for (int i : order) {
+					out.writeFloat(lats[i]);
+				}
+				for (int i : order) {
+					out.writeFloat(lons[i]);
+				}
+				for (int i : order) {
+					out.writeFloat(depths[i]);
+				}
+				for (int i : order) {
+					out.writeFloat(magnitudes[i]);
+				}
+			} finally {
+				out.close();
+			}
+		}
+
+		// the next unused file name of the month and tile, e.g. 2015-08-t21-0002.seg
+		private File nextFile(File directory) {
+			for (int sequence = 0;; sequence++) {
+				File file = new File(directory, String.format("%04d-%02d-t%02d-%04d%s", year, month, tile, sequence,
+						HistoricalCatalog.SEGMENT_SUFFIX));
+				if (!file.exists()) {
+					return file;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import parsing.QuakeFeature;
+import parsing.QuakeRecord;
+import processing.core.PApplet;
+
+/**
+ * Queries the historical catalog for the view of the map on a background
+ * thread, for Mode.HISTORICAL.
+ *
+ * The query of the largest quakes in the view, their classification and
+ * the QuakeLayer made of them are all done off the animation thread. The
+ * finished layer is published with a single atomic reference swap, like
+ * the layers of a FeedRefresher, and the sketch picks it up in draw() with
+ * getLatest(). Views asked for while a query runs replace each other, so
+ * only the last one is queried next, and a layer is not built for a view
+ * which has already been replaced.
+ *
+ * @author DariuszUstrzycki
+ */
+public class HistoricalQuakeLoader {
+
+	private final PApplet applet;
+	private final HistoricalCatalog catalog;
+	private final List<Marker> cityMarkers;
+	private final int limit;
+
+	// The classifier is only built when the first query needs it, if the
+	// sketch did not have one; without the countries every quake is an
+	// ocean quake
+	private final byte[] countryData;
+	private QuakeClassifier classifier;
+
+	// the bounding box to query next (min and max lat, min and max lon),
+	// null when there is none
+	private final AtomicReference<float[]> pending = new AtomicReference<float[]>();
+
+	private final AtomicReference<QuakeLayer> latest = new AtomicReference<QuakeLayer>();
+
+	// told on the loader thread whenever a new layer is published
+	private volatile Runnable listener = () -> {
+	};
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "historical-loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Creates a loader of the limit largest quakes of the view. The
+	 * classifier and the country data may be null.
+	 */
+	public HistoricalQuakeLoader(PApplet applet, HistoricalCatalog catalog, List<Marker> cityMarkers,
+			byte[] countryData, QuakeClassifier classifier, int limit) {
+		this.applet = applet;
+		this.catalog = catalog;
+		this.cityMarkers = cityMarkers;
+		this.countryData = countryData;
+		this.classifier = classifier;
+		this.limit = limit;
+	}
+
+	/**
+	 * Sets what to run, on the loader thread, after a new layer is
+	 * published.
+	 */
+	public void setListener(Runnable listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Asks for the quakes of the bounding box; returns at once. A box with
+	 * minLon greater than maxLon crosses the date line.
+	 */
+	public void request(float minLat, float maxLat, float minLon, float maxLon) {
+		if (pending.getAndSet(new float[] { minLat, maxLat, minLon, maxLon }) == null) {
+			executor.execute(this::load);
+		}
+	}
+
+	/**
+	 * Returns the layer of the last view queried, null before the first
+	 * one. Never blocks.
+	 */
+	public QuakeLayer getLatest() {
+		return latest.get();
+	}
+
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	private void load() {
+		float[] box = pending.getAndSet(null);
+		if (box == null) {
+			return;
+		}
+
+		// an exception would end up in the executor, where nobody sees it
+		try {
+			List<PointFeature> features = new ArrayList<PointFeature>();
+			for (QuakeRecord record : catalog.largest(Long.MIN_VALUE, Long.MAX_VALUE, box[0], box[1], box[2], box[3],
+					limit)) {
+				features.add(new QuakeFeature(record));
+			}
+			if (pending.get() != null) {
+				return;
+			}
+
+			latest.set(QuakeLayer.build(getClassifier().classify(features), cityMarkers));
+			listener.run();
+		} catch (IOException e) {
+			System.out.println("Could not read the historical catalog: " + e.getMessage());
+		} catch (RuntimeException e) {
+			System.out.println("Could not show the historical quakes: " + e);
+		}
+	}
+
+	// only called on the loader thread
+	private QuakeClassifier getClassifier() {
+		if (classifier == null) {
+			List<Marker> countries = Collections.emptyList();
+			if (countryData != null) {
+				List<Feature> features = GeoJSONReader.loadDataFromJSON(applet, new String(countryData, UTF_8));
+				countries = MapUtils.createSimpleMarkers(features);
+			} else {
+				System.out.println("No countries loaded, the historical quakes are all shown as ocean quakes");
+			}
+			classifier = new QuakeClassifier(new CountryIndex(countries));
+		}
+		return classifier;
+	}
+}
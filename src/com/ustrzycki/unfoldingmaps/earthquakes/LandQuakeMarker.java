@@ -28,12 +28,6 @@ public class LandQuakeMarker extends EarthquakeMarker {
 		pg.ellipse(x, y, 2*radius, 2*radius);
 		
 	}
-	
-
-	// Get the country the earthquake is in
-	public String getCountry() {
-		return (String) getProperty("country");
-	}
 
 		
 }
\ No newline at end of file
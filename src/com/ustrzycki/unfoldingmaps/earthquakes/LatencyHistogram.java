@@ -0,0 +1,163 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, recorded from any thread without
+ * locks.
+ *
+ * The buckets are log-linear, like those of an HdrHistogram: every power
+ * of two is split into SUB_BUCKETS equal buckets, so a percentile is read
+ * back to within about 3 % of the recorded value, from nanoseconds up to
+ * MAX_VALUE, in a fixed array of counters. Recording a value is an
+ * increment of its bucket and of the count and sum adders.
+ *
+ * Percentiles are read from snapshots, which can be subtracted from each
+ * other to get the histogram of an interval.
+ *
+ * @author DariuszUstrzycki
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// larger values (about 36 minutes) are counted in the last bucket
+	private static final int MAX_BIT = 40;
+	public static final long MAX_VALUE = (1L << (MAX_BIT + 1)) - 1;
+
+	private static final int BUCKETS = (MAX_BIT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a duration in nanoseconds; a negative one is recorded as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Copies the counters. A snapshot taken while values are recorded may
+	 * miss some of them, but each bucket is read atomically.
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, count.sum(), sum.sum(), max.get());
+	}
+
+	// values below SUB_BUCKETS have a bucket each; above, every power of two
+	// has SUB_BUCKETS buckets
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		int shift = highestBit - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	// the largest value counted in the bucket
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+		long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * The counters of a histogram at one moment.
+	 */
+	public static class Snapshot {
+
+		/** A snapshot with nothing recorded */
+		public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0, 0);
+
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * The values recorded since the earlier snapshot. Its maximum is only
+		 * known to within a bucket.
+		 */
+		public Snapshot minus(Snapshot earlier) {
+			long[] difference = new long[BUCKETS];
+			long highest = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				difference[i] = counts[i] - earlier.counts[i];
+				if (difference[i] > 0) {
+					highest = i;
+				}
+			}
+			long sinceCount = count - earlier.count;
+			return new Snapshot(difference, sinceCount, sum - earlier.sum,
+					sinceCount == 0 ? 0 : Math.min(max, highestValueOf((int) highest)));
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/** The mean in nanoseconds, 0 if nothing was recorded */
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/** The largest value in nanoseconds */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * The value in nanoseconds which the given percentage (0 to 100) of
+		 * the values do not exceed, to within a bucket; 0 if nothing was
+		 * recorded.
+		 */
+		public long getPercentile(double percent) {
+			long total = 0;
+			for (long bucketCount : counts) {
+				total += bucketCount;
+			}
+			if (total == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(percent / 100 * total));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(max, highestValueOf(i));
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/**
+ * Earthquake markers ordered by magnitude, largest first.
+ *
+ * The order is kept up to date as quakes are added and removed, so the
+ * largest N quakes are simply the first N of the list. A refresh only adds
+ * and removes the quakes of the QuakeCatalog delta, on a copy of the index
+ * of the last layer.
+ *
+ * Quakes of the same magnitude are ranked the way sortAndPrint used to
+ * rank them: the one added later comes first.
+ *
+ * @author DariuszUstrzycki
+ */
+public class MagnitudeIndex {
+
+	private final List<EarthquakeMarker> ranking;
+
+	public MagnitudeIndex() {
+		ranking = new ArrayList<EarthquakeMarker>();
+	}
+
+	private MagnitudeIndex(MagnitudeIndex index) {
+		ranking = new ArrayList<EarthquakeMarker>(index.ranking);
+	}
+
+	/**
+	 * Returns a copy of the index, which can be changed without changing
+	 * this one.
+	 */
+	public MagnitudeIndex copy() {
+		return new MagnitudeIndex(this);
+	}
+
+	/**
+	 * Adds the quake at its place in the ranking.
+	 */
+	public void add(EarthquakeMarker quake) {
+		ranking.add(insertionPoint(quake.getMagnitude()), quake);
+	}
+
+	/**
+	 * Adds all the quakes of the list. A large batch is appended and sorted
+	 * once instead of being inserted one by one.
+	 */
+	public void addAll(List<Marker> quakes) {
+		if (quakes.size() < 16) {
+			for (Marker quake : quakes) {
+				add((EarthquakeMarker) quake);
+			}
+			return;
+		}
+
+		List<EarthquakeMarker> batch = new ArrayList<EarthquakeMarker>(quakes.size());
+		for (Marker quake : quakes) {
+			batch.add((EarthquakeMarker) quake);
+		}
+		// later quakes go before earlier ones of the same magnitude; the sort
+		// is stable, so reversing first gives exactly that
+		Collections.reverse(batch);
+		batch.addAll(ranking);
+		Collections.sort(batch, Collections.reverseOrder());
+		ranking.clear();
+		ranking.addAll(batch);
+	}
+
+	/**
+	 * Removes the quake; returns whether it was in the index. Only the
+	 * quakes of its magnitude are looked at.
+	 */
+	public boolean remove(EarthquakeMarker quake) {
+		float magnitude = quake.getMagnitude();
+		for (int i = insertionPoint(magnitude); i < ranking.size()
+				&& ranking.get(i).getMagnitude() == magnitude; i++) {
+			if (ranking.get(i) == quake) {
+				ranking.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all the quakes of the list. A large batch is removed in one
+	 * pass over the ranking instead of one by one.
+	 */
+	public void removeAll(List<Marker> quakes) {
+		if (quakes.size() < 16) {
+			for (Marker quake : quakes) {
+				remove((EarthquakeMarker) quake);
+			}
+			return;
+		}
+
+		Set<Marker> removed = Collections.newSetFromMap(new IdentityHashMap<Marker, Boolean>());
+		removed.addAll(quakes);
+		ranking.removeIf(removed::contains);
+	}
+
+	/**
+	 * Returns the n largest quakes, largest first; all of them if there are
+	 * fewer than n.
+	 */
+	public List<EarthquakeMarker> largest(int n) {
+		return new ArrayList<EarthquakeMarker>(ranking.subList(0, Math.min(n, ranking.size())));
+	}
+
+	public int size() {
+		return ranking.size();
+	}
+
+	// position of the first quake of the ranking with a magnitude not above the given one
+	private int insertionPoint(float magnitude) {
+		int low = 0;
+		int high = ranking.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (ranking.get(middle).getMagnitude() > magnitude) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
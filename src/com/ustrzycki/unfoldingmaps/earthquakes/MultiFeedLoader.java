@@ -0,0 +1,278 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import parsing.EarthquakeFeedReader;
+import parsing.QuakeFeature;
+import parsing.QuakeRecord;
+import processing.core.PApplet;
+
+/**
+ * Loads several earthquake feeds at once and merges them into one list
+ * without duplicates.
+ *
+ * Every feed is downloaded and parsed by its own thread, straight off the
+ * stream, and its entries are merged into a store keyed by the event id.
+ * So loading all the feeds takes about as long as the slowest of them, and
+ * no feed is held in memory as a whole. The entries of a feed are only
+ * merged once the whole feed has been parsed, so a feed which breaks off
+ * half way leaves nothing behind. When an event is in more than one feed,
+ * the most recently updated entry is kept.
+ *
+ * A CRC32 of every feed is computed while it is read; getChecksum tells
+ * whether any feed has changed since the last complete load. A caller
+ * which finds it unchanged drops the quakes it got, instead of holding
+ * back the parsing of every feed until all of them are downloaded.
+ *
+ * A Listener can follow the entries as they come in: it sees them in
+ * batches while a feed is still being read, so it can already work on
+ * them, and then the entries of the whole feed which went into the store.
+ * The feeds are merged one at a time, so the listener sees the merged
+ * entries in the order in which they replace each other.
+ *
+ * The time of every feed is recorded by PhaseTimer, split into the fetch
+ * (waiting for the stream) and the parsing, which includes what the
+ * listener does with the entries read.
+ *
+ * @author DariuszUstrzycki
+ */
+public class MultiFeedLoader {
+
+	/** Follows the entries of the feeds while they are parsed */
+	public interface Listener {
+		/**
+		 * Called on the loader thread of a feed with every BATCH_SIZE
+		 * entries read, before the feed is merged. They may never be merged,
+		 * if the rest of the feed cannot be read.
+		 */
+		void read(List<QuakeFeature> entries);
+
+		/**
+		 * Called once a feed is merged with its entries which went into the
+		 * store: the new events and the newer entries of known ones. Only
+		 * one feed at a time is merged, and the feeds wait to be merged
+		 * until this returns.
+		 */
+		void merged(List<QuakeFeature> entries);
+	}
+
+	private static final int BATCH_SIZE = 1000;
+
+	// newest quakes first, like in the feeds
+	static final Comparator<QuakeRecord> NEWEST_FIRST = (a, b) -> {
+		int byTime = Long.compare(b.getTime(), a.getTime());
+		return byTime != 0 ? byTime : QuakeCatalog.keyOf(a).compareTo(QuakeCatalog.keyOf(b));
+	};
+
+	private final PApplet applet;
+	private final List<String> feeds;
+
+	private long checksum;
+
+	public MultiFeedLoader(PApplet applet, List<String> feeds) {
+		this.applet = applet;
+		this.feeds = new ArrayList<String>(feeds);
+	}
+
+	/**
+	 * Loads all the feeds and returns their quakes, each event once, newest
+	 * first. If any feed cannot be read or parsed to the end, it is reported
+	 * and null is returned: the quakes of the other feeds alone would look
+	 * as if the quakes of that feed were gone.
+	 */
+	public List<PointFeature> load() {
+		return load(null);
+	}
+
+	/**
+	 * Like load(), and tells the listener, which may be null, about the
+	 * entries of the feeds as they are read and merged.
+	 */
+	public List<PointFeature> load(Listener listener) {
+		Map<String, QuakeFeature> store = new HashMap<String, QuakeFeature>();
+		long[] checksums = new long[feeds.size()];
+
+		ExecutorService executor = Executors.newFixedThreadPool(feeds.size(), runnable -> {
+			Thread thread = new Thread(runnable, "feed-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for (String feed : feeds) {
+				results.add(executor.submit(() -> loadInto(store, listener, feed)));
+			}
+
+			boolean failed = false;
+			for (int i = 0; i < feeds.size(); i++) {
+				try {
+					checksums[i] = results.get(i).get();
+				} catch (ExecutionException e) {
+					System.out.println("Could not load the feed " + feeds.get(i) + ": " + e.getCause());
+					failed = true;
+				}
+			}
+			if (failed) {
+				// so the next load is used even if no feed has changed
+				checksum = 0;
+				return null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// the checksum of every feed goes in, so an entry moving from one
+		// feed to another changes it too
+		CRC32 crc = new CRC32();
+		for (long value : checksums) {
+			for (int shift = 0; shift < 64; shift += 8) {
+				crc.update((int) (value >>> shift));
+			}
+		}
+		checksum = crc.getValue();
+
+		List<QuakeFeature> quakes = new ArrayList<QuakeFeature>(store.values());
+		Collections.sort(quakes, Comparator.comparing(QuakeFeature::getRecord, NEWEST_FIRST));
+		return new ArrayList<PointFeature>(quakes);
+	}
+
+	/**
+	 * Checksum of the feeds read by the last complete load, 0 before the
+	 * first one and after a load which failed.
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+	public List<String> getFeeds() {
+		return Collections.unmodifiableList(feeds);
+	}
+
+	// Parses the feed off the stream and then merges it into the store;
+	// returns the CRC32 of the feed
+	private long loadInto(Map<String, QuakeFeature> store, Listener listener, String feed) throws IOException {
+		long start = PhaseTimer.start();
+		InputStream opened = applet.createInput(feed);
+		if (opened == null) {
+			throw new IOException("not found");
+		}
+
+		// the download and the parsing take turns on this thread, the time
+		// spent waiting for the stream is the fetch
+		TimedInputStream input = new TimedInputStream(opened, System.nanoTime() - start);
+		CheckedInputStream checked = new CheckedInputStream(input, new CRC32());
+		List<QuakeFeature> staged = new ArrayList<QuakeFeature>();
+		try {
+			// the XML parser may close the stream at the end of the feed
+			// element, but the rest of the stream still counts for the
+			// checksum, so it is only closed here
+			EarthquakeFeedReader reader = new EarthquakeFeedReader(new FilterInputStream(checked) {
+				@Override
+				public void close() {
+				}
+			}, feed);
+			try {
+				while (reader.hasNext()) {
+					staged.add(QuakeFeature.of(reader.next()));
+					if (listener != null && staged.size() % BATCH_SIZE == 0) {
+						listener.read(staged.subList(staged.size() - BATCH_SIZE, staged.size()));
+					}
+				}
+				if (listener != null && staged.size() % BATCH_SIZE != 0) {
+					listener.read(staged.subList(staged.size() - staged.size() % BATCH_SIZE, staged.size()));
+				}
+			} finally {
+				reader.close();
+			}
+
+			byte[] rest = new byte[4096];
+			while (checked.read(rest) != -1) {
+				// skip
+			}
+		} finally {
+			checked.close();
+		}
+		long total = System.nanoTime() - start;
+		PhaseTimer.record(PhaseTimer.Phase.FETCH, input.nanos);
+		PhaseTimer.record(PhaseTimer.Phase.PARSE, total - input.nanos);
+
+		synchronized (store) {
+			List<QuakeFeature> entries = new ArrayList<QuakeFeature>();
+			for (QuakeFeature quake : staged) {
+				if (store.merge(QuakeCatalog.keyOf(quake.getRecord()), quake, MultiFeedLoader::newer) == quake) {
+					entries.add(quake);
+				}
+			}
+			if (listener != null) {
+				listener.merged(entries);
+			}
+		}
+		return checked.getChecksum().getValue();
+	}
+
+	// the more recently updated of two entries of the same event
+	// (NO_TIME is the smallest long, so an entry without an update time loses)
+	private static QuakeFeature newer(QuakeFeature present, QuakeFeature candidate) {
+		return candidate.getRecord().getUpdated() > present.getRecord().getUpdated() ? candidate : present;
+	}
+
+	/*
+	 * Adds up the time spent in the reads of a stream.
+	 */
+	private static class TimedInputStream extends FilterInputStream {
+		long nanos;
+
+		TimedInputStream(InputStream in, long nanos) {
+			super(in);
+			this.nanos = nanos;
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			try {
+				return super.read();
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			try {
+				return super.read(b, off, len);
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long start = System.nanoTime();
+			try {
+				return super.skip(n);
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.fhpotsdam.unfolding.core.Coordinate;
+import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
+import processing.core.PConstants;
+import processing.core.PImage;
+
+/**
+ * Serves the tiles written by OverlayTileWriter to a map drawn over the
+ * base map.
+ *
+ * The decoded tiles are kept in an LRU cache of a fixed number of tiles,
+ * so panning back and forth and zooming in and out again does not read
+ * and decode them again. The tiles left out by the writer, having no
+ * markers, are served as one shared transparent tile, which is cached as
+ * well.
+ *
+ * The tiles are loaded on the tile loader threads of the map, so the cache
+ * is synchronized.
+ *
+ * @author DariuszUstrzycki
+ */
+public class OverlayTileProvider extends MBTilesMapProvider {
+
+	private static final PImage EMPTY_TILE = new PImage(HeadlessRenderer.TILE_SIZE, HeadlessRenderer.TILE_SIZE,
+			PConstants.ARGB);
+
+	private final Map<Coordinate, PImage> cache;
+	private final int maxZoom;
+
+	private int hits;
+	private int misses;
+
+	/**
+	 * Opens the MBTiles file at the path, keeping up to cacheSize tiles.
+	 */
+	public OverlayTileProvider(String path, int cacheSize) {
+		super(path);
+		this.cache = new LinkedHashMap<Coordinate, PImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Coordinate, PImage> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		this.maxZoom = readMaxZoom();
+	}
+
+	@Override
+	public PImage getTile(Coordinate coordinate) {
+		Coordinate key = coordinate.copy();
+		synchronized (cache) {
+			PImage tile = cache.get(key);
+			if (tile != null) {
+				hits++;
+				return tile;
+			}
+			misses++;
+		}
+
+		// read outside the lock, so the loader threads do not wait for each other
+		PImage tile = super.getTile(coordinate);
+		if (tile == null) {
+			tile = EMPTY_TILE;
+		}
+		synchronized (cache) {
+			cache.put(key, tile);
+		}
+		return tile;
+	}
+
+	/** The highest zoom level of the tiles, -1 if the file cannot be read */
+	public int getMaxZoom() {
+		return maxZoom;
+	}
+
+	/** How many tiles were served from the cache */
+	public int getHits() {
+		synchronized (cache) {
+			return hits;
+		}
+	}
+
+	/** How many tiles had to be read from the file */
+	public int getMisses() {
+		synchronized (cache) {
+			return misses;
+		}
+	}
+
+	private int readMaxZoom() {
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException e) {
+			System.out.println("Could not read the overlay tiles: the SQLite driver is missing");
+			return -1;
+		}
+
+		try (Connection connection = DriverManager.getConnection(jdbcConnectionString);
+				Statement statement = connection.createStatement();
+				ResultSet result = statement.executeQuery("SELECT MAX(zoom_level) FROM tiles")) {
+			return result.next() ? result.getInt(1) : -1;
+		} catch (SQLException e) {
+			System.out.println("Could not read the overlay tiles: " + e.getMessage());
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders the quake and city markers into a pyramid of transparent tiles
+ * and writes them to an MBTiles file, to be drawn over the map by an
+ * OverlayTileProvider.
+ *
+ * The tiles are rendered and encoded by a pool of threads, while this
+ * thread inserts them as they are finished in batches of BATCH_SIZE, one
+ * transaction per batch. Only IN_FLIGHT tiles per thread are handed to the
+ * pool at a time, so the memory does not grow with the size of the
+ * pyramid. Tiles without any marker are not written. The index of the
+ * tiles is only created at the end, after all the inserts.
+ *
+ * The rows are numbered from the bottom, as MBTiles (TMS) wants them.
+ *
+ * Usage: OverlayTileWriter data-directory mbtiles-file [max-zoom [source]]
+ * where the source is a feed file or a historical catalog directory in the
+ * data directory, as for HeadlessRenderer.
+ *
+ * @author DariuszUstrzycki
+ */
+public class OverlayTileWriter {
+
+	private static final int BATCH_SIZE = 500;
+
+	// tiles rendered or waiting to be inserted, per thread of the pool
+	private static final int IN_FLIGHT = 4;
+
+	/**
+	 * Writes the tiles of the zoom levels 0 to maxZoom into a new MBTiles
+	 * file, replacing the file if it exists. Returns the number of tiles
+	 * written.
+	 */
+	public static int write(HeadlessRenderer renderer, File file, String name, int maxZoom, int threads)
+			throws IOException, SQLException {
+		renderer.setOverlay(true);
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace " + file);
+		}
+
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("The SQLite driver is missing", e);
+		}
+
+		ThreadLocal<HeadlessGraphics> buffers = ThreadLocal.withInitial(
+				() -> new HeadlessGraphics(HeadlessRenderer.TILE_SIZE, HeadlessRenderer.TILE_SIZE));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath())) {
+			try (Statement statement = connection.createStatement()) {
+				// the file is written from scratch, so a crash only loses it
+				statement.executeUpdate("PRAGMA synchronous = OFF");
+				statement.executeUpdate("PRAGMA journal_mode = OFF");
+				statement.executeUpdate("CREATE TABLE metadata (name TEXT, value TEXT)");
+				statement.executeUpdate(
+						"CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+			}
+			connection.setAutoCommit(false);
+
+			try (PreparedStatement metadata = connection.prepareStatement("INSERT INTO metadata VALUES (?, ?)")) {
+				String[][] values = { { "name", name }, { "type", "overlay" }, { "version", "1" },
+						{ "description", "Quake and city markers" }, { "format", "png" },
+						{ "bounds", "-180,-85.0511,180,85.0511" }, { "minzoom", "0" },
+						{ "maxzoom", Integer.toString(maxZoom) } };
+				for (String[] value : values) {
+					metadata.setString(1, value[0]);
+					metadata.setString(2, value[1]);
+					metadata.addBatch();
+				}
+				metadata.executeBatch();
+			}
+
+			// every tile is encoded on the pool, to a PNG, or to null if empty
+			CompletionService<Tile> rendered = new ExecutorCompletionService<Tile>(executor);
+			int inFlight = 0;
+			int written = 0;
+			try (PreparedStatement insert = connection.prepareStatement("INSERT INTO tiles VALUES (?, ?, ?, ?)")) {
+				for (int zoom = 0; zoom <= maxZoom; zoom++) {
+					for (int x = 0; x < 1 << zoom; x++) {
+						for (int y = 0; y < 1 << zoom; y++) {
+							if (inFlight == IN_FLIGHT * threads) {
+								written = insert(connection, insert, rendered.take().get(), written);
+								inFlight--;
+							}
+
+							int z = zoom, tx = x, ty = y;
+							rendered.submit(() -> {
+								HeadlessGraphics pg = buffers.get();
+								byte[] png = renderer.renderTile(pg, z, tx, ty) > 0 ? pg.encodePng() : null;
+								return new Tile(z, tx, ty, png);
+							});
+							inFlight++;
+						}
+					}
+				}
+				for (; inFlight > 0; inFlight--) {
+					written = insert(connection, insert, rendered.take().get(), written);
+				}
+				insert.executeBatch();
+			}
+
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+			}
+			connection.commit();
+			return written;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while rendering the tiles", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not render a tile", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// Adds the tile to the batch of inserts, unless it is empty, and runs
+	// the batch once it is full. Returns the number of tiles written
+	private static int insert(Connection connection, PreparedStatement insert, Tile tile, int written)
+			throws SQLException {
+		if (tile.png == null) {
+			return written;
+		}
+
+		insert.setInt(1, tile.zoom);
+		insert.setInt(2, tile.x);
+		insert.setInt(3, (1 << tile.zoom) - 1 - tile.y);
+		insert.setBytes(4, tile.png);
+		insert.addBatch();
+
+		if (++written % BATCH_SIZE == 0) {
+			insert.executeBatch();
+			connection.commit();
+		}
+		return written;
+	}
+
+	/*
+	 * A rendered tile and where it goes.
+	 */
+	private static class Tile {
+		final int zoom, x, y;
+		final byte[] png;
+
+		Tile(int zoom, int x, int y, byte[] png) {
+			this.zoom = zoom;
+			this.x = x;
+			this.y = y;
+			this.png = png;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, SQLException {
+		if (args.length < 2) {
+			System.out.println("Usage: OverlayTileWriter data-directory mbtiles-file [max-zoom [source]]");
+			return;
+		}
+
+		File file = new File(args[1]);
+		int maxZoom = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+		String source = args.length > 3 ? args[3] : "historical";
+
+		long start = System.nanoTime();
+		HeadlessRenderer renderer = HeadlessRenderer.load(new File(args[0]), source);
+		System.out.println("Loaded the data in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		start = System.nanoTime();
+		int tiles = write(renderer, file, source, maxZoom, Runtime.getRuntime().availableProcessors());
+		System.out.printf("Wrote %d tiles to %s in %.2f s%n", tiles, file, (System.nanoTime() - start) / 1e9);
+	}
+}
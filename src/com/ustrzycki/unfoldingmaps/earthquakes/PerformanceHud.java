@@ -0,0 +1,145 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import com.ustrzycki.unfoldingmaps.earthquakes.PhaseTimer.Phase;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * A panel below the menu with the timings of the PhaseTimer phases: the
+ * frame time and the drawing phases since the figures were last taken, at
+ * most once per WINDOW_MILLIS, and the loading phases since the start.
+ * With frames drawn on demand, a window lasts until the next frame after
+ * WINDOW_MILLIS, so its length is shown with the frame rate. Each row
+ * shows the median, the 99th percentile and the maximum in milliseconds.
+ *
+ * The figures only change once per window, so the sketch draws the panel
+ * through a CachedLayer keyed by getVersion().
+ *
+ * @author DariuszUstrzycki
+ */
+public class PerformanceHud {
+
+	public static final int X = 25;
+	public static final int Y = 430;
+	public static final int WIDTH = 150;
+	public static final int HEIGHT = 185;
+
+	private static final long WINDOW_MILLIS = 1000;
+	private static final int LINE_HEIGHT = 14;
+
+	private final LatencyHistogram.Snapshot[] previous = new LatencyHistogram.Snapshot[Phase.values().length];
+	private final LatencyHistogram.Snapshot[] shown = new LatencyHistogram.Snapshot[Phase.values().length];
+	private long windowStart;
+	private long windowMillis;
+	private int version;
+
+	private boolean visible = false;
+
+	public boolean isVisible() {
+		return visible;
+	}
+
+	public void toggle() {
+		visible = !visible;
+		windowStart = 0;
+		Arrays.fill(previous, null);
+	}
+
+	/**
+	 * Takes the figures of a new window if the last one is over. Returns
+	 * whether they have changed.
+	 */
+	public boolean update(long nowMillis) {
+		if (windowStart != 0 && nowMillis - windowStart < WINDOW_MILLIS) {
+			return false;
+		}
+
+		for (Phase phase : Phase.values()) {
+			LatencyHistogram.Snapshot current = PhaseTimer.histogram(phase).snapshot();
+			LatencyHistogram.Snapshot earlier = previous[phase.ordinal()];
+			shown[phase.ordinal()] = phase.isPerFrame()
+					? current.minus(earlier != null ? earlier : LatencyHistogram.Snapshot.EMPTY)
+					: current;
+			previous[phase.ordinal()] = current;
+		}
+		windowMillis = windowStart == 0 ? 0 : nowMillis - windowStart;
+		windowStart = nowMillis;
+		version++;
+		return true;
+	}
+
+	/** Changes whenever the figures do */
+	public int getVersion() {
+		return version;
+	}
+
+	public void draw(PGraphics pg) {
+		pg.fill(255, 250, 240);
+		pg.rect(X, Y, WIDTH, HEIGHT);
+
+		pg.fill(0);
+		pg.textAlign(PConstants.LEFT, PConstants.CENTER);
+		pg.textSize(12);
+		int y = Y + 12;
+		pg.text("Timings in ms", X + 8, y);
+
+		pg.textSize(10);
+		y += LINE_HEIGHT + 2;
+		long frames = shown[Phase.FRAME.ordinal()] == null ? 0 : shown[Phase.FRAME.ordinal()].getCount();
+		// the first window after the panel is shown goes back to the start
+		pg.text(windowMillis == 0 ? "since the start"
+				: String.format(Locale.ROOT, "last %.1f s, %.1f fps", windowMillis / 1000.0,
+						frames * 1000.0 / windowMillis), X + 8, y);
+		y = header(pg, y + LINE_HEIGHT);
+		for (Phase phase : Phase.values()) {
+			if (phase.isPerFrame()) {
+				y = row(pg, phase, y);
+			}
+		}
+
+		pg.textAlign(PConstants.LEFT, PConstants.CENTER);
+		y += 4;
+		pg.text("since the start", X + 8, y);
+		y += LINE_HEIGHT;
+		for (Phase phase : Phase.values()) {
+			if (!phase.isPerFrame()) {
+				y = row(pg, phase, y);
+			}
+		}
+	}
+
+	private static int header(PGraphics pg, int y) {
+		pg.textAlign(PConstants.RIGHT, PConstants.CENTER);
+		pg.text("p50", X + 82, y);
+		pg.text("p99", X + 112, y);
+		pg.text("max", X + WIDTH - 4, y);
+		return y + LINE_HEIGHT;
+	}
+
+	private int row(PGraphics pg, Phase phase, int y) {
+		LatencyHistogram.Snapshot snapshot = shown[phase.ordinal()];
+		boolean empty = snapshot == null || snapshot.getCount() == 0;
+
+		pg.textAlign(PConstants.LEFT, PConstants.CENTER);
+		pg.text(phase.getLabel(), X + 8, y);
+		pg.textAlign(PConstants.RIGHT, PConstants.CENTER);
+		pg.text(empty ? "-" : millis(snapshot.getPercentile(50)), X + 82, y);
+		pg.text(empty ? "-" : millis(snapshot.getPercentile(99)), X + 112, y);
+		pg.text(empty ? "-" : millis(snapshot.getMax()), X + WIDTH - 4, y);
+		return y + LINE_HEIGHT;
+	}
+
+	// four characters at most, to fit the columns; whole seconds from 10 s
+	private static String millis(long nanos) {
+		double millis = nanos / 1e6;
+		if (millis >= 10000) {
+			return String.format(Locale.ROOT, "%.0fs", millis / 1000);
+		}
+		String format = millis < 1 ? "%.2f" : millis < 100 ? "%.1f" : "%.0f";
+		return String.format(Locale.ROOT, format, millis);
+	}
+}
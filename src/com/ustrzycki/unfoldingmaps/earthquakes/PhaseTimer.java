@@ -0,0 +1,77 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+/**
+ * Times the phases of loading and drawing the quakes, each into its own
+ * LatencyHistogram, for the PerformanceHud.
+ *
+ * The phases run on the animation thread, the startup and feed loader
+ * threads and the common pool, so the histograms are kept here, for all
+ * of them to record into:
+ *
+ * <pre>
+ * long start = PhaseTimer.start();
+ * ...
+ * PhaseTimer.stop(PhaseTimer.Phase.CLASSIFY, start);
+ * </pre>
+ *
+ * Timing a phase costs two System.nanoTime calls and a few uncontended
+ * atomic increments, so it is always on.
+ *
+ * @author DariuszUstrzycki
+ */
+public final class PhaseTimer {
+
+	public enum Phase {
+		// loading, recorded once per feed or batch
+		FETCH("fetch", false), PARSE("parse", false), CLASSIFY("classify", false), INDEX("indexes", false),
+		// drawing, recorded every frame or mouse event
+		FRAME("frame", true), MAP_DRAW("map.draw", true), MARKERS("markers", true), HIT_TEST("hit test", true);
+
+		private final String label;
+		private final boolean perFrame;
+
+		Phase(String label, boolean perFrame) {
+			this.label = label;
+			this.perFrame = perFrame;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		/** Whether the phase recurs with the frames, rather than with the loads */
+		public boolean isPerFrame() {
+			return perFrame;
+		}
+	}
+
+	private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[Phase.values().length];
+
+	static {
+		for (int i = 0; i < HISTOGRAMS.length; i++) {
+			HISTOGRAMS[i] = new LatencyHistogram();
+		}
+	}
+
+	private PhaseTimer() {
+	}
+
+	/** The start time of a phase, to be passed to stop */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/** Records the time since the start of the phase */
+	public static void stop(Phase phase, long start) {
+		HISTOGRAMS[phase.ordinal()].record(System.nanoTime() - start);
+	}
+
+	/** Records a duration measured by the caller */
+	public static void record(Phase phase, long nanos) {
+		HISTOGRAMS[phase.ordinal()].record(nanos);
+	}
+
+	public static LatencyHistogram histogram(Phase phase) {
+		return HISTOGRAMS[phase.ordinal()];
+	}
+}
@@ -0,0 +1,190 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import parsing.QuakeFeature;
+import parsing.QuakeRecord;
+
+/**
+ * The quakes of the feed by their USGS event id, for applying a newly
+ * fetched feed as a delta.
+ *
+ * Every entry of the fetched feed is looked up by its id. An entry with the
+ * same update time and age as before keeps its marker; only new entries are
+ * checked against the countries, and an updated entry only if it has moved.
+ * Quakes which are no longer in the feed are retired. So a refresh of a
+ * mostly unchanged feed creates only a handful of markers, and the markers
+ * which left and joined the catalog are all the indexes of a QuakeLayer
+ * need to be told about.
+ *
+ * An entry without an id is looked up by its title instead.
+ *
+ * @author DariuszUstrzycki
+ */
+public class QuakeCatalog {
+
+	private Map<String, EarthquakeMarker> byId = new HashMap<String, EarthquakeMarker>();
+	private List<Marker> markers = new ArrayList<Marker>();
+
+	// what the last update did
+	private int added;
+	private int updated;
+	private int retired;
+	private List<Marker> removedMarkers = new ArrayList<Marker>();
+	private List<Marker> addedMarkers = new ArrayList<Marker>();
+
+	/**
+	 * Creates a catalog of the markers, e.g. the ones loaded at startup.
+	 */
+	public QuakeCatalog(List<Marker> quakeMarkers) {
+		for (Marker marker : quakeMarkers) {
+			EarthquakeMarker quake = (EarthquakeMarker) marker;
+			byId.put(keyOf(quake.getRecord()), quake);
+			markers.add(quake);
+		}
+	}
+
+	/**
+	 * Applies the fetched feed to the catalog. The markers are then in the
+	 * order of the feed. Returns whether any quake was added, updated or
+	 * retired.
+	 */
+	public boolean update(List<PointFeature> earthquakes, QuakeClassifier classifier) {
+		Set<String> seen = new HashSet<String>(2 * earthquakes.size());
+		EarthquakeMarker[] next = new EarthquakeMarker[earthquakes.size()];
+
+		// the new and moved quakes are classified together at the end
+		List<PointFeature> toClassify = new ArrayList<PointFeature>();
+		List<Integer> toClassifyAt = new ArrayList<Integer>();
+
+		added = 0;
+		updated = 0;
+		int kept = 0;
+		List<Marker> removed = new ArrayList<Marker>();
+		List<Marker> joined = new ArrayList<Marker>();
+
+		for (int i = 0; i < earthquakes.size(); i++) {
+			QuakeFeature feature = QuakeFeature.of(earthquakes.get(i));
+			QuakeRecord record = feature.getRecord();
+			String key = keyOf(record);
+			if (!seen.add(key)) {
+				// the same event twice in one feed, the first one counts
+				continue;
+			}
+
+			EarthquakeMarker previous = byId.get(key);
+
+			if (previous == null) {
+				added++;
+				toClassify.add(feature);
+				toClassifyAt.add(i);
+			} else if (isSame(previous.getRecord(), record)) {
+				kept++;
+				next[i] = previous;
+			} else {
+				updated++;
+				kept++;
+				removed.add(previous);
+				if (hasMoved(previous.getRecord(), record)) {
+					toClassify.add(feature);
+					toClassifyAt.add(i);
+				} else {
+					next[i] = classifier.classifyLike(feature, previous);
+					joined.add(next[i]);
+				}
+			}
+		}
+
+		List<Marker> classified = classifier.classify(toClassify);
+		for (int c = 0; c < classified.size(); c++) {
+			next[toClassifyAt.get(c)] = (EarthquakeMarker) classified.get(c);
+		}
+		joined.addAll(classified);
+
+		retired = byId.size() - kept;
+		if (retired > 0) {
+			for (Map.Entry<String, EarthquakeMarker> entry : byId.entrySet()) {
+				if (!seen.contains(entry.getKey())) {
+					removed.add(entry.getValue());
+				}
+			}
+		}
+		removedMarkers = removed;
+		addedMarkers = joined;
+		if (added == 0 && updated == 0 && retired == 0) {
+			return false;
+		}
+
+		byId = new HashMap<String, EarthquakeMarker>(2 * next.length);
+		markers = new ArrayList<Marker>(next.length);
+		for (EarthquakeMarker quake : next) {
+			if (quake != null) {
+				byId.put(keyOf(quake.getRecord()), quake);
+				markers.add(quake);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the markers of the quakes in the catalog, in the order of the
+	 * last feed. The list is replaced, not changed, by the next update.
+	 */
+	public List<Marker> getMarkers() {
+		return markers;
+	}
+
+	public int size() {
+		return markers.size();
+	}
+
+	public int getAdded() {
+		return added;
+	}
+
+	public int getUpdated() {
+		return updated;
+	}
+
+	public int getRetired() {
+		return retired;
+	}
+
+	/**
+	 * The markers the last update took out of the catalog: those of the
+	 * retired quakes and the old markers of the updated ones.
+	 */
+	public List<Marker> getRemovedMarkers() {
+		return removedMarkers;
+	}
+
+	/**
+	 * The markers the last update put into the catalog: those of the new
+	 * quakes and the new markers of the updated ones.
+	 */
+	public List<Marker> getAddedMarkers() {
+		return addedMarkers;
+	}
+
+	// the event id, or the title of an entry without one
+	static String keyOf(QuakeRecord record) {
+		return record.getId() != null ? record.getId() : "title:" + record.getTitle();
+	}
+
+	// The feed changes the age class of an entry as time goes by without
+	// touching its update time, so the age is compared as well
+	private static boolean isSame(QuakeRecord previous, QuakeRecord record) {
+		return previous.getUpdated() == record.getUpdated() && previous.getAge() == record.getAge();
+	}
+
+	private static boolean hasMoved(QuakeRecord previous, QuakeRecord record) {
+		return previous.getLatitude() != record.getLatitude() || previous.getLongitude() != record.getLongitude();
+	}
+}
@@ -0,0 +1,111 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.ustrzycki.unfoldingmaps.jfr.FlightEvents;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import parsing.QuakeFeature;
+
+/**
+ * Sorts earthquakes into land and ocean quakes and creates their markers.
+ *
+ * The work for each quake is independent: the country index is only read,
+ * and the country is written into the quake's own QuakeFeature. So a whole
+ * list of quakes is classified in parallel on all cores, and the markers
+ * come back in the order of the features. The country is read and written
+ * through the typed field of the feature, never the property map, because
+ * the map of a marker already on the screen may be built by the animation
+ * thread at the same time.
+ *
+ * @author DariuszUstrzycki
+ */
+public class QuakeClassifier {
+
+	private final CountryIndex countryIndex;
+
+	public QuakeClassifier(CountryIndex countryIndex) {
+		this.countryIndex = countryIndex;
+	}
+
+	/**
+	 * Creates the markers of all the quakes, using all cores. The markers are
+	 * in the same order as the features.
+	 */
+	public List<Marker> classify(List<PointFeature> earthquakes) {
+		Object event = FlightEvents.beginClassification();
+		long start = PhaseTimer.start();
+		List<Marker> markers = earthquakes.parallelStream()
+				.<Marker>map(this::classify)
+				.collect(Collectors.toList());
+		PhaseTimer.stop(PhaseTimer.Phase.CLASSIFY, start);
+
+		if (event != null) {
+			int land = 0;
+			for (Marker marker : markers) {
+				if (((EarthquakeMarker) marker).isOnLand()) {
+					land++;
+				}
+			}
+			FlightEvents.endClassification(event, markers.size(), land);
+		}
+		return markers;
+	}
+
+	/**
+	 * Creates a LandQuakeMarker or an OceanQuakeMarker for the quake.
+	 */
+	public EarthquakeMarker classify(PointFeature earthquake) {
+		QuakeFeature quake = QuakeFeature.of(earthquake);
+		// check if LandQuake
+		if (isLand(quake)) {
+			return new LandQuakeMarker(quake);
+		}
+		// OceanQuakes
+		else {
+			return new OceanQuakeMarker(quake);
+		}
+	}
+
+	/**
+	 * Creates the marker of a new version of a quake which has not moved,
+	 * reusing the land/ocean check of its previous marker.
+	 */
+	public EarthquakeMarker classifyLike(PointFeature earthquake, EarthquakeMarker previous) {
+		QuakeFeature quake = QuakeFeature.of(earthquake);
+		if (previous.isOnLand()) {
+			quake.setCountry(previous.getCountry());
+			return new LandQuakeMarker(quake);
+		} else {
+			return new OceanQuakeMarker(quake);
+		}
+	}
+
+	// Checks whether this quake occurred on land. If it did, it sets the
+	// country of its feature to the country where it occurred
+	// and returns true. Otherwise it returns false.
+	// The country index only runs the exact point-in-polygon test for the
+	// countries whose bounding box contains the quake.
+	public boolean isLand(PointFeature earthquake) {
+
+		Marker country = countryIndex.countryAt(earthquake.getLocation());
+		if (country != null) {
+			String name = country.getStringProperty("name");
+			if (earthquake instanceof QuakeFeature) {
+				((QuakeFeature) earthquake).setCountry(name);
+			} else {
+				earthquake.addProperty("country", name);
+			}
+			return true;
+		}
+
+		// not inside any country
+		return false;
+	}
+
+	public CountryIndex getCountryIndex() {
+		return countryIndex;
+	}
+}
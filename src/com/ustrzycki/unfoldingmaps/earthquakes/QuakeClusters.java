@@ -0,0 +1,156 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/**
+ * The quake markers grouped into clusters for every zoom level.
+ *
+ * At each zoom level from MAX_CLUSTER_ZOOM down to 0 the points of the
+ * level above are put into a grid of CLUSTER_PIXELS square cells (in the
+ * Web Mercator pixels of that level), and each cell becomes a single
+ * point: a ClusterMarker at the weighted centre of its quakes, or the
+ * point itself if it is alone in its cell. So every level only looks at
+ * the clusters of the one above, and a level has at most one marker per
+ * cell of its grid over the whole world, which at the low zoom levels is
+ * far fewer than the quakes. The markers are not culled to the screen.
+ *
+ * Above MAX_CLUSTER_ZOOM the quakes are shown one by one.
+ *
+ * @author DariuszUstrzycki
+ */
+public class QuakeClusters {
+
+	/** The highest zoom level at which the quakes are clustered */
+	public static final int MAX_CLUSTER_ZOOM = 10;
+
+	// size of a grid cell on the screen
+	private static final int CLUSTER_PIXELS = 40;
+
+	private final List<Marker> quakes;
+
+	// the markers of each zoom level, levels.get(z) for zoom level z
+	private final List<List<Marker>> levels;
+
+	private QuakeClusters(List<Marker> quakes, List<List<Marker>> levels) {
+		this.quakes = quakes;
+		this.levels = levels;
+	}
+
+	/**
+	 * Clusters the quakes for all the zoom levels.
+	 */
+	public static QuakeClusters build(List<Marker> quakes) {
+		int n = quakes.size();
+
+		// the points of the level being built, in Web Mercator coordinates
+		// from 0 to 1, with the number of quakes they stand for, their
+		// largest magnitude and their marker (null for a new cluster)
+		double[] x = new double[n];
+		double[] y = new double[n];
+		int[] count = new int[n];
+		float[] maxMagnitude = new float[n];
+		Marker[] markers = new Marker[n];
+
+		for (int i = 0; i < n; i++) {
+			EarthquakeMarker quake = (EarthquakeMarker) quakes.get(i);
+			Location location = quake.getLocation();
+			x[i] = mercatorX(location.getLon());
+			y[i] = mercatorY(location.getLat());
+			count[i] = 1;
+			maxMagnitude[i] = quake.getMagnitude();
+			markers[i] = quake;
+		}
+
+		// filled from the highest zoom level down
+		List<List<Marker>> levels = new ArrayList<List<Marker>>(
+				Collections.<List<Marker>> nCopies(MAX_CLUSTER_ZOOM + 1, null));
+		for (int zoom = MAX_CLUSTER_ZOOM; zoom >= 0; zoom--) {
+			double cell = CLUSTER_PIXELS / (256.0 * (1 << zoom));
+
+			// the new point of each cell, in the order the cells are first met
+			Map<Long, Integer> cells = new HashMap<Long, Integer>();
+			double[] sumX = new double[n];
+			double[] sumY = new double[n];
+			int[] nextCount = new int[n];
+			float[] nextMax = new float[n];
+			Marker[] nextMarkers = new Marker[n];
+			int next = 0;
+
+			for (int i = 0; i < n; i++) {
+				long key = ((long) Math.floor(x[i] / cell) << 32) | ((long) Math.floor(y[i] / cell) & 0xffffffffL);
+				Integer c = cells.get(key);
+				if (c == null) {
+					c = next++;
+					cells.put(key, c);
+					nextMarkers[c] = markers[i];
+					nextMax[c] = maxMagnitude[i];
+				} else {
+					// more than one point, so a new cluster
+					nextMarkers[c] = null;
+					nextMax[c] = Math.max(nextMax[c], maxMagnitude[i]);
+				}
+				sumX[c] += x[i] * count[i];
+				sumY[c] += y[i] * count[i];
+				nextCount[c] += count[i];
+			}
+
+			List<Marker> level = new ArrayList<Marker>(next);
+			for (int c = 0; c < next; c++) {
+				sumX[c] /= nextCount[c];
+				sumY[c] /= nextCount[c];
+				if (nextMarkers[c] == null) {
+					nextMarkers[c] = new ClusterMarker(new Location(latitude(sumY[c]), longitude(sumX[c])),
+							nextCount[c], nextMax[c]);
+				}
+				level.add(nextMarkers[c]);
+			}
+			levels.set(zoom, Collections.unmodifiableList(level));
+
+			n = next;
+			x = sumX;
+			y = sumY;
+			count = nextCount;
+			maxMagnitude = nextMax;
+			markers = nextMarkers;
+		}
+
+		return new QuakeClusters(quakes, levels);
+	}
+
+	/**
+	 * Returns the markers to draw at the zoom level: clusters and single
+	 * quakes up to MAX_CLUSTER_ZOOM, all the quakes above it.
+	 */
+	public List<Marker> markersAt(int zoomLevel) {
+		if (zoomLevel > MAX_CLUSTER_ZOOM) {
+			return quakes;
+		}
+		return levels.get(Math.max(0, zoomLevel));
+	}
+
+	// Web Mercator coordinates from 0 to 1, also used by HeadlessRenderer
+	static double mercatorX(float lon) {
+		return (lon + 180) / 360.0;
+	}
+
+	static double mercatorY(float lat) {
+		// the poles are cut off like on the map
+		double sin = Math.sin(Math.toRadians(Math.max(-85, Math.min(85, lat))));
+		return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+	}
+
+	private static float longitude(double x) {
+		return (float) (x * 360 - 180);
+	}
+
+	private static float latitude(double y) {
+		return (float) Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+	}
+}
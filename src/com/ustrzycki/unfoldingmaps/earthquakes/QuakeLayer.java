@@ -0,0 +1,104 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/**
+ * Snapshot of the loaded earthquakes: their markers and the indexes built
+ * over them.
+ *
+ * A layer is built completely before it is published and is not changed
+ * afterwards, so it can be built on a background thread and handed to the
+ * animation thread with a single reference swap. The marker list cannot be
+ * modified; the indexes are only read once the layer is published. The
+ * next layer of a refresh is made by update, which changes copies of the
+ * threat graph and the magnitude index by the quakes which came and went
+ * instead of building them again.
+ *
+ * @author DariuszUstrzycki
+ */
+public class QuakeLayer {
+
+	private final List<Marker> quakeMarkers;
+	private final SphericalKdTree quakeTree;
+	private final MagnitudeIndex magnitudeIndex;
+	private final ThreatGraph threatGraph;
+	private final QuakeClusters clusters;
+
+	private QuakeLayer(List<Marker> quakeMarkers, SphericalKdTree quakeTree, MagnitudeIndex magnitudeIndex,
+			ThreatGraph threatGraph, QuakeClusters clusters) {
+		this.quakeMarkers = quakeMarkers;
+		this.quakeTree = quakeTree;
+		this.magnitudeIndex = magnitudeIndex;
+		this.threatGraph = threatGraph;
+		this.clusters = clusters;
+	}
+
+	/**
+	 * Builds the layer of the quakes and all its indexes.
+	 */
+	public static QuakeLayer build(List<Marker> quakeMarkers, List<Marker> cityMarkers) {
+		long start = PhaseTimer.start();
+		List<Marker> quakes = Collections.unmodifiableList(new ArrayList<Marker>(quakeMarkers));
+
+		MagnitudeIndex magnitudeIndex = new MagnitudeIndex();
+		magnitudeIndex.addAll(quakes);
+
+		// link every quake to the cities inside its threat circle
+		ThreatGraph threatGraph = new ThreatGraph(cityMarkers);
+		threatGraph.addQuakes(quakes);
+
+		QuakeLayer layer = new QuakeLayer(quakes, SphericalKdTree.of(quakes), magnitudeIndex, threatGraph,
+				QuakeClusters.build(quakes));
+		PhaseTimer.stop(PhaseTimer.Phase.INDEX, start);
+		return layer;
+	}
+
+	/**
+	 * Builds the layer of the given quakes, which are the quakes of this
+	 * layer without the removed ones and with the added ones. Only these are
+	 * taken out of and put into copies of the magnitude index and the threat
+	 * graph; the k-d tree and the clusters are built anew. This layer is not
+	 * changed.
+	 */
+	public QuakeLayer update(List<Marker> quakeMarkers, List<Marker> removed, List<Marker> added) {
+		long start = PhaseTimer.start();
+		List<Marker> quakes = Collections.unmodifiableList(new ArrayList<Marker>(quakeMarkers));
+
+		MagnitudeIndex magnitudeIndex = this.magnitudeIndex.copy();
+		magnitudeIndex.removeAll(removed);
+		magnitudeIndex.addAll(added);
+
+		ThreatGraph threatGraph = this.threatGraph.copy();
+		threatGraph.removeQuakes(removed);
+		threatGraph.addQuakes(added);
+
+		QuakeLayer layer = new QuakeLayer(quakes, SphericalKdTree.of(quakes), magnitudeIndex, threatGraph,
+				QuakeClusters.build(quakes));
+		PhaseTimer.stop(PhaseTimer.Phase.INDEX, start);
+		return layer;
+	}
+
+	public List<Marker> getQuakeMarkers() {
+		return quakeMarkers;
+	}
+
+	public SphericalKdTree getQuakeTree() {
+		return quakeTree;
+	}
+
+	public MagnitudeIndex getMagnitudeIndex() {
+		return magnitudeIndex;
+	}
+
+	public ThreatGraph getThreatGraph() {
+		return threatGraph;
+	}
+
+	public QuakeClusters getClusters() {
+		return clusters;
+	}
+}
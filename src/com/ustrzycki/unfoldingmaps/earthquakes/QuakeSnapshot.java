@@ -0,0 +1,346 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import parsing.QuakeFeature;
+import parsing.QuakeRecord;
+
+/**
+ * Binary snapshot of the parsed and classified quakes and the cities.
+ *
+ * When the feeds, the city file and the country file have not changed
+ * since the snapshot was written, the markers can be restored from it
+ * without parsing any XML or JSON and without the land/ocean check. The
+ * snapshot knows what it was made from by a CRC32 checksum of the bytes of
+ * those sources, so it can be looked up as soon as they are read.
+ *
+ * Layout (big-endian): a header with MAGIC, VERSION, the source checksum
+ * and the number of quakes and cities, then one column per field - all the
+ * latitudes, then all the longitudes and so on - and finally the strings.
+ *
+ * The file is read through a memory-mapped buffer, which is only unmapped
+ * when it is garbage collected, and a mapped file cannot be deleted or
+ * replaced on Windows. So a snapshot is never overwritten: the snapshot of
+ * every checksum has a file of its own, named after the given file with
+ * the checksum added (quakes-1f2e3d4c.snapshot), and the older ones are
+ * deleted when a new one has been written, if they can be.
+ *
+ * @author DariuszUstrzycki
+ */
+public class QuakeSnapshot {
+
+	private static final int MAGIC = 0x4551534E; // "EQSN"
+	private static final int VERSION = 2;
+
+	// the fewest bytes a quake and a city take in the file: the numbers and
+	// the lengths of the strings
+	private static final int QUAKE_BYTES = 4 * 4 + 2 * 8 + 2 + 3 * 4;
+	private static final int CITY_BYTES = 2 * 4 + 4;
+
+	private final List<Marker> quakeMarkers;
+	private final List<Marker> cityMarkers;
+
+	private QuakeSnapshot(List<Marker> quakeMarkers, List<Marker> cityMarkers) {
+		this.quakeMarkers = quakeMarkers;
+		this.cityMarkers = cityMarkers;
+	}
+
+	public List<Marker> getQuakeMarkers() {
+		return quakeMarkers;
+	}
+
+	public List<Marker> getCityMarkers() {
+		return cityMarkers;
+	}
+
+	/**
+	 * Checksum of the source data a snapshot is made from.
+	 */
+	public static long checksum(byte[]... sources) {
+		CRC32 crc = new CRC32();
+		for (byte[] source : sources) {
+			crc.update(source);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Restores the markers from the snapshot of the data with the given
+	 * checksum. Returns null if there is no such snapshot or it has another
+	 * version.
+	 */
+	public static QuakeSnapshot load(File file, long checksum) throws IOException {
+		File snapshot = fileFor(file, checksum);
+		if (!snapshot.isFile()) {
+			return null;
+		}
+
+		// everything is copied out of the buffer, so nothing keeps the
+		// mapping once this returns
+		RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.remaining() < 24 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+					|| buffer.getLong() != checksum) {
+				return null;
+			}
+
+			// the counts are checked against the size of the file, so a corrupt
+			// one does not allocate arrays that cannot be filled
+			int quakeCount = buffer.getInt();
+			int cityCount = buffer.getInt();
+			if (quakeCount < 0 || cityCount < 0
+					|| (long) quakeCount * QUAKE_BYTES + (long) cityCount * CITY_BYTES > buffer.remaining()) {
+				throw new IOException("The snapshot " + snapshot + " is corrupt");
+			}
+			return new QuakeSnapshot(readQuakes(buffer, quakeCount), readCities(buffer, cityCount));
+		} catch (BufferUnderflowException e) {
+			// a truncated snapshot is as good as none
+			return null;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes the snapshot of the markers made from the data with the given
+	 * checksum, and deletes the snapshots of other data. The file is written
+	 * next to the target and then renamed, so a reader never sees half a
+	 * snapshot.
+	 */
+	public static void write(File file, long checksum, List<Marker> quakeMarkers, List<Marker> cityMarkers)
+			throws IOException {
+		File target = fileFor(file, checksum);
+		File temporary = new File(target.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(checksum);
+			out.writeInt(quakeMarkers.size());
+			out.writeInt(cityMarkers.size());
+			writeQuakes(out, quakeMarkers);
+			writeCities(out, cityMarkers);
+		} finally {
+			out.close();
+		}
+
+		// the target only exists if it could not be read, so it is not mapped
+		if (target.exists() && !target.delete() || !temporary.renameTo(target)) {
+			throw new IOException("Could not write the snapshot " + target);
+		}
+
+		// a snapshot which is still mapped is deleted next time
+		File[] others = target.getAbsoluteFile().getParentFile().listFiles();
+		if (others != null) {
+			String prefix = prefixOf(file);
+			String suffix = suffixOf(file);
+			for (File other : others) {
+				String name = other.getName();
+				if (!other.equals(target.getAbsoluteFile()) && name.startsWith(prefix) && name.endsWith(suffix)) {
+					other.delete();
+				}
+			}
+		}
+	}
+
+	// the file of the snapshot of the data with the checksum
+	static File fileFor(File file, long checksum) {
+		return new File(file.getAbsoluteFile().getParentFile(),
+				prefixOf(file) + String.format("%08x", checksum) + suffixOf(file));
+	}
+
+	// quakes- of quakes.snapshot
+	private static String prefixOf(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return (dot < 0 ? name : name.substring(0, dot)) + "-";
+	}
+
+	// .snapshot of quakes.snapshot
+	private static String suffixOf(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot < 0 ? "" : name.substring(dot);
+	}
+
+	private static void writeQuakes(DataOutputStream out, List<Marker> quakeMarkers) throws IOException {
+		List<QuakeRecord> records = new ArrayList<QuakeRecord>(quakeMarkers.size());
+		for (Marker marker : quakeMarkers) {
+			records.add(((EarthquakeMarker) marker).getRecord());
+		}
+
+		for (QuakeRecord record : records) {
+			out.writeFloat(record.getLatitude());
+		}
+		for (QuakeRecord record : records) {
+			out.writeFloat(record.getLongitude());
+		}
+		for (QuakeRecord record : records) {
+			out.writeFloat(record.getMagnitude());
+		}
+		for (QuakeRecord record : records) {
+			out.writeFloat(record.getDepth());
+		}
+		for (QuakeRecord record : records) {
+			out.writeLong(record.getTime());
+		}
+		for (QuakeRecord record : records) {
+			out.writeLong(record.getUpdated());
+		}
+		for (QuakeRecord record : records) {
+			out.writeByte(record.getAge());
+		}
+		for (Marker marker : quakeMarkers) {
+			out.writeByte(((EarthquakeMarker) marker).isOnLand() ? 1 : 0);
+		}
+		for (QuakeRecord record : records) {
+			writeString(out, record.getId());
+		}
+		for (QuakeRecord record : records) {
+			writeString(out, record.getTitle());
+		}
+		for (Marker marker : quakeMarkers) {
+			writeString(out, ((EarthquakeMarker) marker).getCountry());
+		}
+	}
+
+	private static List<Marker> readQuakes(ByteBuffer buffer, int count) throws IOException {
+		float[] lats = readFloats(buffer, count);
+		float[] lons = readFloats(buffer, count);
+		float[] magnitudes = readFloats(buffer, count);
+		float[] depths = readFloats(buffer, count);
+		long[] times = readLongs(buffer, count);
+		long[] updates = readLongs(buffer, count);
+		byte[] ages = new byte[count];
+		buffer.get(ages);
+		byte[] onLand = new byte[count];
+		buffer.get(onLand);
+		String[] ids = readStrings(buffer, count);
+		String[] titles = readStrings(buffer, count);
+		String[] countries = readStrings(buffer, count);
+
+		List<Marker> markers = new ArrayList<Marker>(count);
+		for (int i = 0; i < count; i++) {
+			QuakeFeature feature = new QuakeFeature(new QuakeRecord(ids[i], updates[i], titles[i], lats[i], lons[i],
+					magnitudes[i], depths[i], ages[i], times[i]));
+
+			if (onLand[i] == 1) {
+				feature.setCountry(countries[i]);
+				markers.add(new LandQuakeMarker(feature));
+			} else {
+				markers.add(new OceanQuakeMarker(feature));
+			}
+		}
+		return markers;
+	}
+
+	/*
+	 * Cities are written as their location and all their properties, which
+	 * are strings in the city file.
+	 */
+	private static void writeCities(DataOutputStream out, List<Marker> cityMarkers) throws IOException {
+		for (Marker city : cityMarkers) {
+			out.writeFloat(city.getLocation().getLat());
+		}
+		for (Marker city : cityMarkers) {
+			out.writeFloat(city.getLocation().getLon());
+		}
+		for (Marker city : cityMarkers) {
+			Map<String, Object> properties = city.getProperties();
+			out.writeInt(properties.size());
+			for (Map.Entry<String, Object> property : properties.entrySet()) {
+				writeString(out, property.getKey());
+				writeString(out, property.getValue() != null ? property.getValue().toString() : null);
+			}
+		}
+	}
+
+	private static List<Marker> readCities(ByteBuffer buffer, int count) throws IOException {
+		float[] lats = readFloats(buffer, count);
+		float[] lons = readFloats(buffer, count);
+
+		List<Marker> markers = new ArrayList<Marker>(count);
+		for (int i = 0; i < count; i++) {
+			int size = buffer.getInt();
+			if (size < 0 || size > buffer.remaining() / 8) {
+				throw new IOException("The snapshot has a corrupt city");
+			}
+			HashMap<String, Object> properties = new HashMap<String, Object>();
+			for (int p = 0; p < size; p++) {
+				properties.put(readString(buffer), readString(buffer));
+			}
+
+			PointFeature city = new PointFeature(new Location(lats[i], lons[i]));
+			city.setProperties(properties);
+			markers.add(new CityMarker(city));
+		}
+		return markers;
+	}
+
+	private static float[] readFloats(ByteBuffer buffer, int count) {
+		float[] values = new float[count];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + 4 * count);
+		return values;
+	}
+
+	private static long[] readLongs(ByteBuffer buffer, int count) {
+		long[] values = new long[count];
+		buffer.asLongBuffer().get(values);
+		buffer.position(buffer.position() + 8 * count);
+		return values;
+	}
+
+	private static String[] readStrings(ByteBuffer buffer, int count) throws IOException {
+		String[] values = new String[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = readString(buffer);
+		}
+		return values;
+	}
+
+	// strings are written as their UTF-8 length and bytes, null as length -1
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > buffer.remaining()) {
+			throw new IOException("The snapshot has a corrupt string");
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
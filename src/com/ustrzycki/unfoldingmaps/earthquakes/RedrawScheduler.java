@@ -0,0 +1,109 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.events.EventDispatcher;
+import de.fhpotsdam.unfolding.events.MapEvent;
+import de.fhpotsdam.unfolding.events.MapEventListener;
+import de.fhpotsdam.unfolding.events.PanMapEvent;
+import de.fhpotsdam.unfolding.events.ZoomMapEvent;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import processing.core.PApplet;
+
+/**
+ * Draws the frames of a sketch only when something has changed.
+ *
+ * The sketch stops looping and asks for a frame with request() on every
+ * input event, map event or new data; request() may be called from any
+ * thread. All the requests made before the next frame starts are answered
+ * by that one frame, so a burst of mouse moves costs a single frame.
+ *
+ * A frame may need the next one: while the map is still moving to a new
+ * view (tweening) or loading tiles, or while something is animated, the
+ * sketch calls frameDrawn(true) and frames keep coming until it settles.
+ *
+ * The scheduler listens to the pan and zoom events of the map itself, so
+ * the navigation of the default event dispatcher draws frames too.
+ *
+ * @author DariuszUstrzycki
+ */
+public class RedrawScheduler implements MapEventListener {
+
+	private static final Location REFERENCE = new Location(0, 0);
+
+	private final PApplet applet;
+	private final UnfoldingMap map;
+
+	// set by a request, cleared when the frame answering it starts
+	private final AtomicBoolean pending = new AtomicBoolean();
+
+	// the view of the last frame, to see whether the map is still moving
+	private float lastZoom = Float.NaN;
+	private float lastX, lastY;
+
+	private int frames;
+
+	/**
+	 * Stops the loop of the sketch and listens to the map events of the
+	 * dispatcher. The first frame is drawn as usual.
+	 */
+	public RedrawScheduler(PApplet applet, UnfoldingMap map, EventDispatcher dispatcher) {
+		this.applet = applet;
+		this.map = map;
+		dispatcher.register(this, PanMapEvent.TYPE_PAN, map.getId());
+		dispatcher.register(this, ZoomMapEvent.TYPE_ZOOM, map.getId());
+		applet.noLoop();
+		request();
+	}
+
+	/**
+	 * Asks for a frame; requests made before it starts are merged into it.
+	 */
+	public void request() {
+		if (pending.compareAndSet(false, true)) {
+			applet.redraw();
+		}
+	}
+
+	/**
+	 * To be called at the start of draw(). Requests made from now on ask
+	 * for another frame.
+	 */
+	public void frameStarted() {
+		pending.set(false);
+		frames++;
+	}
+
+	/**
+	 * To be called at the end of draw(). Asks for the next frame if the
+	 * sketch is animating something or the map has not settled yet.
+	 */
+	public void frameDrawn(boolean animating) {
+		ScreenPosition reference = map.getScreenPosition(REFERENCE);
+		boolean moving = map.getZoom() != lastZoom || reference.x != lastX || reference.y != lastY;
+		lastZoom = map.getZoom();
+		lastX = reference.x;
+		lastY = reference.y;
+
+		if (animating || moving || !map.allTilesLoaded()) {
+			request();
+		}
+	}
+
+	/** How many frames have been drawn */
+	public int getFrameCount() {
+		return frames;
+	}
+
+	@Override
+	public String getId() {
+		return "redraw-" + map.getId();
+	}
+
+	@Override
+	public void onManipulation(MapEvent event) {
+		request();
+	}
+}
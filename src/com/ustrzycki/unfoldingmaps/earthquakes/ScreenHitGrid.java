@@ -0,0 +1,170 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.Arrays;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+
+/**
+ * Screen-space bucket grid of point markers, for hover and click tests.
+ *
+ * Every marker is projected once and put into the grid cells its hit area
+ * overlaps, which is as large as the hit radius of the marker (a cluster
+ * is hit anywhere in its circle). A lookup then only calls
+ * Marker.isInside on the markers in the cell under the cursor instead of
+ * on every marker. The grid is rebuilt only when the map has been panned
+ * or zoomed, or the markers have changed.
+ *
+ * Like the loops it replaces, firstHit returns the first marker of the list
+ * which is hit, so hidden markers can be hit too.
+ *
+ * @author DariuszUstrzycki
+ */
+public class ScreenHitGrid {
+
+	// size of a grid cell in pixels
+	private static final int CELL_SIZE = 32;
+
+	// The largest distance from its centre at which a marker other than a
+	// CommonMarker can be hit: SimplePointMarker's default radius
+	private static final float HIT_RADIUS = 10;
+
+	private static final Location REFERENCE = new Location(0, 0);
+
+	private final int columns;
+	private final int rows;
+
+	private List<? extends Marker> markers;
+
+	// markers of each cell, cellMarkers[cellStart[c]] to cellMarkers[cellStart[c + 1] - 1]
+	private final int[] cellStart;
+	private int[] cellMarkers = new int[0];
+
+	// the view and markers the grid was built for
+	private boolean built = false;
+	private float builtZoom;
+	private float builtX, builtY;
+	private int builtSize;
+
+	/**
+	 * Creates a grid covering a screen of the given size.
+	 */
+	public ScreenHitGrid(int width, int height) {
+		columns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+		rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+		cellStart = new int[columns * rows + 1];
+	}
+
+	public void setMarkers(List<? extends Marker> markers) {
+		this.markers = markers;
+		built = false;
+	}
+
+	/** Forces a rebuild on the next lookup */
+	public void invalidate() {
+		built = false;
+	}
+
+	/**
+	 * Returns the first marker of the list which is hit at the screen
+	 * position, or null.
+	 */
+	public Marker firstHit(UnfoldingMap map, float x, float y) {
+		if (markers == null) {
+			return null;
+		}
+
+		long start = PhaseTimer.start();
+		Marker hit = find(map, x, y);
+		PhaseTimer.stop(PhaseTimer.Phase.HIT_TEST, start);
+		return hit;
+	}
+
+	// the lookup of firstHit, rebuilding the grid first if needed
+	private Marker find(UnfoldingMap map, float x, float y) {
+		update(map);
+
+		int col = (int) Math.floor(x / CELL_SIZE);
+		int row = (int) Math.floor(y / CELL_SIZE);
+		if (col < 0 || col >= columns || row < 0 || row >= rows) {
+			return null;
+		}
+
+		int cell = row * columns + col;
+		for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+			Marker marker = markers.get(cellMarkers[i]);
+			if (marker.isInside(map, x, y)) {
+				return marker;
+			}
+		}
+		return null;
+	}
+
+	// rebuilds the grid if the map has been panned or zoomed since the last build
+	private void update(UnfoldingMap map) {
+		ScreenPosition reference = map.getScreenPosition(REFERENCE);
+		float zoom = map.getZoom();
+
+		if (built && zoom == builtZoom && reference.x == builtX && reference.y == builtY
+				&& markers.size() == builtSize) {
+			return;
+		}
+
+		rebuild(map);
+		built = true;
+		builtZoom = zoom;
+		builtX = reference.x;
+		builtY = reference.y;
+		builtSize = markers.size();
+	}
+
+	private void rebuild(UnfoldingMap map) {
+		int size = markers.size();
+		int[] minCol = new int[size];
+		int[] maxCol = new int[size];
+		int[] minRow = new int[size];
+		int[] maxRow = new int[size];
+
+		// first count the markers of each cell, then fill them in, so that
+		// markers keep the order of the list in every cell
+		Arrays.fill(cellStart, 0);
+		for (int m = 0; m < size; m++) {
+			Marker marker = markers.get(m);
+			ScreenPosition position = map.getScreenPosition(marker.getLocation());
+			float radius = hitRadius(marker);
+			minCol[m] = Math.max(0, (int) Math.floor((position.x - radius) / CELL_SIZE));
+			maxCol[m] = Math.min(columns - 1, (int) Math.floor((position.x + radius) / CELL_SIZE));
+			minRow[m] = Math.max(0, (int) Math.floor((position.y - radius) / CELL_SIZE));
+			maxRow[m] = Math.min(rows - 1, (int) Math.floor((position.y + radius) / CELL_SIZE));
+
+			for (int row = minRow[m]; row <= maxRow[m]; row++) {
+				for (int col = minCol[m]; col <= maxCol[m]; col++) {
+					cellStart[row * columns + col + 1]++;
+				}
+			}
+		}
+		for (int c = 0; c < columns * rows; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+
+		if (cellMarkers.length < cellStart[columns * rows]) {
+			cellMarkers = new int[cellStart[columns * rows]];
+		}
+		int[] filled = new int[columns * rows];
+		for (int m = 0; m < size; m++) {
+			for (int row = minRow[m]; row <= maxRow[m]; row++) {
+				for (int col = minCol[m]; col <= maxCol[m]; col++) {
+					int cell = row * columns + col;
+					cellMarkers[cellStart[cell] + filled[cell]++] = m;
+				}
+			}
+		}
+	}
+
+	private static float hitRadius(Marker marker) {
+		return marker instanceof CommonMarker ? ((CommonMarker) marker).getHitRadius() : HIT_RADIUS;
+	}
+}
@@ -0,0 +1,424 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.Arrays;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/**
+ * k-d tree of points on the globe, for nearest-neighbour and radius queries.
+ *
+ * Every point is stored as a unit vector in 3D, so the straight-line (chord)
+ * distance between two points grows with their great-circle distance and the
+ * tree has no trouble at the poles or at the date line. The tree is kept in
+ * primitive arrays: the points are reordered so that each subtree is a
+ * range of the arrays with its splitting point in the middle.
+ *
+ * Points are referred to by their position in the arrays given to the
+ * constructor. Results are returned in a Neighbours object, which holds
+ * those positions and the distances in km, nearest first.
+ *
+ * @author DariuszUstrzycki
+ */
+public class SphericalKdTree {
+
+	/** Same earth radius as GeoUtils.getDistance */
+	public static final double EARTH_RADIUS_KM = 6371.01;
+
+	private final int size;
+
+	// point coordinates and original positions, in tree order
+	private final double[] xs, ys, zs;
+	private final int[] points;
+
+	// splitting axis of the subtree whose middle is at the given position
+	private final byte[] axes;
+
+	public SphericalKdTree(float[] lats, float[] lons) {
+		size = lats.length;
+		xs = new double[size];
+		ys = new double[size];
+		zs = new double[size];
+		points = new int[size];
+		axes = new byte[size];
+
+		for (int i = 0; i < size; i++) {
+			double lat = Math.toRadians(lats[i]);
+			double lon = Math.toRadians(lons[i]);
+			xs[i] = Math.cos(lat) * Math.cos(lon);
+			ys[i] = Math.cos(lat) * Math.sin(lon);
+			zs[i] = Math.sin(lat);
+			points[i] = i;
+		}
+
+		build(0, size);
+	}
+
+	/**
+	 * Builds a tree of the locations of the markers; query results refer to
+	 * positions in the list.
+	 */
+	public static SphericalKdTree of(List<? extends Marker> markers) {
+		float[] lats = new float[markers.size()];
+		float[] lons = new float[markers.size()];
+		for (int i = 0; i < lats.length; i++) {
+			Location location = markers.get(i).getLocation();
+			lats[i] = location.getLat();
+			lons[i] = location.getLon();
+		}
+		return new SphericalKdTree(lats, lons);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the k points nearest to the location, nearest first. Fewer
+	 * points are returned if the tree has fewer than k.
+	 */
+	public Neighbours nearest(Location location, int k) {
+		Neighbours result = new Neighbours(Math.min(k, size));
+		if (result.capacity > 0) {
+			double[] target = toVector(location);
+			nearest(0, size, target[0], target[1], target[2], result);
+		}
+		result.finish();
+		return result;
+	}
+
+	/**
+	 * Finds all the points within radiusKm of the location, nearest first.
+	 */
+	public Neighbours within(Location location, double radiusKm) {
+		double[] target = toVector(location);
+		double chord = chordOf(radiusKm);
+
+		Neighbours result = new Neighbours(16);
+		result.growable = true;
+		within(0, size, target[0], target[1], target[2], chord * chord, result);
+		result.finish();
+		return result;
+	}
+
+	/*
+	 * Builds the subtree of the range [from, to): the point at the middle is
+	 * the median along the axis where the range is widest, smaller ones go
+	 * before it, bigger ones after it.
+	 */
+	private void build(int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+
+		byte axis = widestAxis(from, to);
+		int middle = (from + to) >>> 1;
+		select(from, to - 1, middle, axis);
+		axes[middle] = axis;
+
+		build(from, middle);
+		build(middle + 1, to);
+	}
+
+	private byte widestAxis(int from, int to) {
+		double[] spread = new double[3];
+		for (byte axis = 0; axis < 3; axis++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				double value = coordinate(i, axis);
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			spread[axis] = max - min;
+		}
+
+		if (spread[0] >= spread[1] && spread[0] >= spread[2]) {
+			return 0;
+		}
+		return spread[1] >= spread[2] ? (byte) 1 : (byte) 2;
+	}
+
+	// quickselect: puts the k-th smallest point along the axis at position k
+	private void select(int left, int right, int k, byte axis) {
+		while (left < right) {
+			double pivot = coordinate((left + right) >>> 1, axis);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (coordinate(i, axis) < pivot) {
+					i++;
+				}
+				while (coordinate(j, axis) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i++, j--);
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void nearest(int from, int to, double x, double y, double z, Neighbours result) {
+		if (from >= to) {
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		result.offer(points[middle], squaredDistance(middle, x, y, z));
+
+		if (to - from == 1) {
+			return;
+		}
+
+		double delta = axisDelta(middle, x, y, z);
+		// search the side of the target first, the other one only if it can
+		// still hold something nearer than the worst result so far
+		if (delta < 0) {
+			nearest(from, middle, x, y, z, result);
+			if (delta * delta < result.worst()) {
+				nearest(middle + 1, to, x, y, z, result);
+			}
+		} else {
+			nearest(middle + 1, to, x, y, z, result);
+			if (delta * delta < result.worst()) {
+				nearest(from, middle, x, y, z, result);
+			}
+		}
+	}
+
+	private void within(int from, int to, double x, double y, double z, double maxSquared, Neighbours result) {
+		if (from >= to) {
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		double squared = squaredDistance(middle, x, y, z);
+		if (squared <= maxSquared) {
+			result.offer(points[middle], squared);
+		}
+
+		if (to - from == 1) {
+			return;
+		}
+
+		double delta = axisDelta(middle, x, y, z);
+		if (delta < 0 || delta * delta <= maxSquared) {
+			within(from, middle, x, y, z, maxSquared, result);
+		}
+		if (delta >= 0 || delta * delta <= maxSquared) {
+			within(middle + 1, to, x, y, z, maxSquared, result);
+		}
+	}
+
+	// signed distance of the target from the splitting plane at the position
+	private double axisDelta(int i, double x, double y, double z) {
+		switch (axes[i]) {
+		case 0:
+			return x - xs[i];
+		case 1:
+			return y - ys[i];
+		default:
+			return z - zs[i];
+		}
+	}
+
+	private double squaredDistance(int i, double x, double y, double z) {
+		double dx = xs[i] - x;
+		double dy = ys[i] - y;
+		double dz = zs[i] - z;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private double coordinate(int i, byte axis) {
+		return axis == 0 ? xs[i] : axis == 1 ? ys[i] : zs[i];
+	}
+
+	private void swap(int i, int j) {
+		double x = xs[i];
+		xs[i] = xs[j];
+		xs[j] = x;
+		double y = ys[i];
+		ys[i] = ys[j];
+		ys[j] = y;
+		double z = zs[i];
+		zs[i] = zs[j];
+		zs[j] = z;
+		int point = points[i];
+		points[i] = points[j];
+		points[j] = point;
+	}
+
+	private static double[] toVector(Location location) {
+		double lat = Math.toRadians(location.getLat());
+		double lon = Math.toRadians(location.getLon());
+		return new double[] { Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat) };
+	}
+
+	// chord length on the unit sphere of a great-circle distance in km
+	private static double chordOf(double km) {
+		double angle = Math.min(km / EARTH_RADIUS_KM, Math.PI);
+		return 2 * Math.sin(angle / 2);
+	}
+
+	// great-circle distance in km of a squared chord length on the unit sphere
+	private static double kmOf(double squaredChord) {
+		double half = Math.min(1, Math.sqrt(squaredChord) / 2);
+		return 2 * Math.asin(half) * EARTH_RADIUS_KM;
+	}
+
+	/**
+	 * Result of a query: the positions of the points found, as given to the
+	 * constructor of the tree, and their distances in km, nearest first.
+	 */
+	public static class Neighbours {
+
+		private int[] indices;
+		private double[] distances;
+		private int count = 0;
+		private int capacity;
+		private boolean growable = false;
+
+		Neighbours(int capacity) {
+			this.capacity = capacity;
+			indices = new int[capacity];
+			distances = new double[capacity];
+		}
+
+		public int size() {
+			return count;
+		}
+
+		/** Position of the i-th nearest point */
+		public int index(int i) {
+			return indices[i];
+		}
+
+		/** Distance in km to the i-th nearest point */
+		public double distance(int i) {
+			return distances[i];
+		}
+
+		// largest squared distance kept so far while the result is full
+		double worst() {
+			return count < capacity ? Double.POSITIVE_INFINITY : distances[0];
+		}
+
+		/*
+		 * While searching, the points found are kept in a max-heap on the
+		 * squared chord distance, so the worst one is replaced first.
+		 */
+		void offer(int index, double squared) {
+			if (count == capacity) {
+				if (growable) {
+					capacity = Math.max(16, capacity * 2);
+					indices = Arrays.copyOf(indices, capacity);
+					distances = Arrays.copyOf(distances, capacity);
+				} else if (squared >= distances[0]) {
+					return;
+				} else {
+					// replace the worst one
+					indices[0] = index;
+					distances[0] = squared;
+					siftDown(0, count);
+					return;
+				}
+			}
+
+			int i = count++;
+			indices[i] = index;
+			distances[i] = squared;
+			if (!growable) {
+				siftUp(i);
+			}
+		}
+
+		// sorts the points nearest first and turns the distances into km
+		void finish() {
+			if (!growable) {
+				for (int end = count - 1; end > 0; end--) {
+					swap(0, end);
+					siftDown(0, end);
+				}
+			} else {
+				sortByDistance(0, count - 1);
+			}
+
+			for (int i = 0; i < count; i++) {
+				distances[i] = kmOf(distances[i]);
+			}
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (distances[parent] >= distances[i]) {
+					return;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i, int end) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= end) {
+					return;
+				}
+				if (child + 1 < end && distances[child + 1] > distances[child]) {
+					child++;
+				}
+				if (distances[i] >= distances[child]) {
+					return;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void sortByDistance(int left, int right) {
+			while (left < right) {
+				double pivot = distances[(left + right) >>> 1];
+				int i = left;
+				int j = right;
+				while (i <= j) {
+					while (distances[i] < pivot) {
+						i++;
+					}
+					while (distances[j] > pivot) {
+						j--;
+					}
+					if (i <= j) {
+						swap(i++, j--);
+					}
+				}
+				// recurse into the smaller part, loop on the bigger one
+				if (j - left < right - i) {
+					sortByDistance(left, j);
+					left = i;
+				} else {
+					sortByDistance(i, right);
+					right = j;
+				}
+			}
+		}
+
+		private void swap(int i, int j) {
+			int index = indices[i];
+			indices[i] = indices[j];
+			indices[j] = index;
+			double distance = distances[i];
+			distances[i] = distances[j];
+			distances[j] = distance;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.fhpotsdam.unfolding.data.Feature;
+import de.fhpotsdam.unfolding.data.GeoJSONReader;
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.MapUtils;
+import parsing.QuakeFeature;
+import processing.core.PApplet;
+
+/**
+ * Loads the countries, cities and quakes on background threads while the
+ * sketch already draws the map.
+ *
+ * The countries, cities and feeds are loaded and parsed at the same time,
+ * the feeds straight off the stream. The cities are published as soon as
+ * they are parsed, and the countries become the classifier. Once it is
+ * ready, the quakes are classified in batches straight off the feed
+ * readers, while the rest of the feeds is still being read. They are only
+ * shown once their whole feed is in, as a feed which breaks off half way
+ * must leave nothing behind, so the first markers come with the first feed
+ * instead of the first entry; the entries read before the classifier was
+ * ready are classified then.
+ *
+ * The checksum of the sources is only known once all the feeds are in. If
+ * the snapshot was made from them and no quake has been classified yet,
+ * because the feeds came in before the classifier was ready, the merged
+ * entries are dropped and the quakes of the snapshot are published
+ * instead, so the classification is skipped. The classifier is then only
+ * taken if it is already built.
+ *
+ * The quakes are published as a QuakeLayer, which is built on the loader
+ * threads and handed over with an atomic reference swap, like the layers
+ * of a FeedRefresher. A new layer is made once the quakes classified
+ * since the last one are at least CHUNK_SIZE and as many as those already
+ * published, so the number of layers only grows with the logarithm of the
+ * number of quakes.
+ *
+ * The sketch takes the cities and the layer in draw() with the getters,
+ * which never block, and compares them by identity to see whether
+ * something new has arrived.
+ *
+ * @author DariuszUstrzycki
+ */
+public class StartupLoader {
+
+	private static final int CHUNK_SIZE = 1000;
+
+	private static final Comparator<Marker> NEWEST_FIRST = Comparator
+			.comparing(marker -> ((EarthquakeMarker) marker).getRecord(), MultiFeedLoader.NEWEST_FIRST);
+
+	private final PApplet applet;
+	private final String countryFile;
+	private final String cityFile;
+	private final MultiFeedLoader feeds;
+	private final File snapshotFile;
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(3, runnable -> {
+		Thread thread = new Thread(runnable, "startup-loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// what has been loaded so far
+	private volatile List<Marker> cityMarkers;
+	private final AtomicReference<QuakeLayer> latest = new AtomicReference<QuakeLayer>();
+	private volatile boolean finished;
+
+	// the markers of the entries classified while their feed was read
+	private final Map<QuakeFeature, Marker> markersRead = new ConcurrentHashMap<QuakeFeature, Marker>();
+
+	// the entries of the feeds merged before the classifier was ready
+	private final List<QuakeFeature> pending = new ArrayList<QuakeFeature>();
+
+	// the quakes merged so far by event id, and how they differ from the
+	// latest layer; only used while a feed is merged
+	private final Map<String, Marker> classified = new HashMap<String, Marker>();
+	private final List<Marker> removed = new ArrayList<Marker>();
+	private final Set<Marker> added = Collections.newSetFromMap(new IdentityHashMap<Marker, Boolean>());
+
+	// only read by the sketch once the loader has finished
+	private volatile byte[] countryData;
+	private volatile List<Marker> countryMarkers;
+	private volatile QuakeClassifier classifier;
+
+	// told on a loader thread whenever something new is published
+	private volatile Runnable listener = () -> {
+	};
+
+	public StartupLoader(PApplet applet, String countryFile, String cityFile, MultiFeedLoader feeds,
+			File snapshotFile) {
+		this.applet = applet;
+		this.countryFile = countryFile;
+		this.cityFile = cityFile;
+		this.feeds = feeds;
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * Sets what to run, on a loader thread, after something new is
+	 * published.
+	 */
+	public void setListener(Runnable listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts loading; returns at once.
+	 */
+	public void start() {
+		CompletableFuture<byte[]> countryBytes = CompletableFuture.supplyAsync(() -> applet.loadBytes(countryFile),
+				executor);
+		CompletableFuture<byte[]> cityBytes = CompletableFuture.supplyAsync(() -> applet.loadBytes(cityFile), executor);
+
+		// the next stages are async too, or they could run on this thread
+		// when their source is already read. The first layer has the cities
+		// but no quakes yet
+		CompletableFuture<Void> cities = cityBytes.thenAcceptAsync(data -> {
+			List<Marker> markers = new ArrayList<Marker>();
+			for (Feature city : GeoJSONReader.loadDataFromJSON(applet, new String(data, UTF_8))) {
+				markers.add(new CityMarker(city));
+			}
+			cityMarkers = Collections.unmodifiableList(markers);
+			publish(QuakeLayer.build(Collections.<Marker> emptyList(), cityMarkers));
+		}, executor);
+		CompletableFuture<QuakeClassifier> classifierBuilt = countryBytes.thenApplyAsync(data -> {
+			List<Feature> countries = GeoJSONReader.loadDataFromJSON(applet, new String(data, UTF_8));
+			countryMarkers = MapUtils.createSimpleMarkers(countries);
+			return new QuakeClassifier(new CountryIndex(countryMarkers));
+		}, executor);
+
+		CompletableFuture<List<PointFeature>> earthquakes = CompletableFuture
+				.supplyAsync(() -> feeds.load(new MultiFeedLoader.Listener() {
+					@Override
+					public void read(List<QuakeFeature> entries) {
+						classifyRead(entries, classifierBuilt.getNow(null));
+					}
+
+					@Override
+					public void merged(List<QuakeFeature> entries) {
+						merge(entries, classifierBuilt.getNow(null), cities);
+					}
+				}), executor);
+
+		CompletableFuture.allOf(countryBytes, cityBytes, earthquakes).thenRunAsync(() -> {
+			countryData = countryBytes.join();
+			List<PointFeature> features = earthquakes.join();
+
+			long checksum = 31 * QuakeSnapshot.checksum(countryData, cityBytes.join()) + feeds.getChecksum();
+			if (features != null && classified.isEmpty()) {
+				QuakeSnapshot snapshot = loadSnapshot(checksum);
+				if (snapshot != null) {
+					pending.clear();
+					markersRead.clear();
+					classifier = classifierBuilt.getNow(null);
+					cities.join();
+					publish(QuakeLayer.build(snapshot.getQuakeMarkers(), cityMarkers));
+					return;
+				}
+			}
+
+			classifier = classifierBuilt.join();
+			merge(Collections.<QuakeFeature> emptyList(), classifier, cities);
+			markersRead.clear();
+			cities.join();
+			if (!added.isEmpty() || !removed.isEmpty()) {
+				publishQuakes();
+			}
+			if (features == null) {
+				// the quakes of the feeds which did load stay; the refresher
+				// brings in the others once all the feeds load
+				System.out.println("Could not load all the feeds");
+				return;
+			}
+			saveSnapshot(checksum);
+		}, executor).whenComplete((result, failure) -> {
+			if (failure != null) {
+				System.out.println("Could not load everything: " + failure);
+			}
+			executor.shutdown();
+			finished = true;
+			listener.run();
+		});
+	}
+
+	/** The cities, null until they are parsed */
+	public List<Marker> getCityMarkers() {
+		return cityMarkers;
+	}
+
+	/**
+	 * The layer of the quakes classified so far, newest first; null until
+	 * the cities are parsed
+	 */
+	public QuakeLayer getLatest() {
+		return latest.get();
+	}
+
+	/** Whether everything has been loaded (or has failed) */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/** The raw country data, once finished */
+	public byte[] getCountryData() {
+		return countryData;
+	}
+
+	/** The country markers, once finished; null if they were not parsed */
+	public List<Marker> getCountryMarkers() {
+		return countryMarkers;
+	}
+
+	/**
+	 * The classifier, once finished; null if the countries failed to load or
+	 * the quakes came from the snapshot
+	 */
+	public QuakeClassifier getClassifier() {
+		return classifier;
+	}
+
+	public MultiFeedLoader getFeeds() {
+		return feeds;
+	}
+
+	// Classifies entries of a feed which is still being read, unless the
+	// classifier is not ready yet
+	private void classifyRead(List<QuakeFeature> entries, QuakeClassifier classifier) {
+		if (classifier == null) {
+			return;
+		}
+		List<Marker> markers = classifier.classify(new ArrayList<PointFeature>(entries));
+		for (int i = 0; i < entries.size(); i++) {
+			markersRead.put(entries.get(i), markers.get(i));
+		}
+	}
+
+	// Takes the markers of the entries of a merged feed and publishes a new
+	// layer when enough of them have come in. The entries of known events
+	// replace their markers. Until the classifier is ready, the entries are
+	// only kept in pending, in the order in which they were merged
+	private void merge(List<QuakeFeature> entries, QuakeClassifier classifier, CompletableFuture<Void> cities) {
+		pending.addAll(entries);
+		if (classifier == null) {
+			return;
+		}
+
+		// the markers are added in the order of the entries, as an entry of
+		// a later feed replaces the one of an earlier feed
+		Marker[] markers = new Marker[pending.size()];
+		List<PointFeature> unclassified = new ArrayList<PointFeature>();
+		for (int i = 0; i < markers.length; i++) {
+			markers[i] = markersRead.remove(pending.get(i));
+			if (markers[i] == null) {
+				unclassified.add(pending.get(i));
+			}
+		}
+		pending.clear();
+
+		Iterator<Marker> classifiedNow = classifier.classify(unclassified).iterator();
+		for (Marker marker : markers) {
+			add(marker != null ? marker : classifiedNow.next());
+		}
+
+		if (added.size() + removed.size() >= Math.max(CHUNK_SIZE, classified.size() / 2)) {
+			cities.join();
+			publishQuakes();
+		}
+	}
+
+	private void add(Marker marker) {
+		Marker previous = classified.put(QuakeCatalog.keyOf(((EarthquakeMarker) marker).getRecord()), marker);
+		if (previous != null && !added.remove(previous)) {
+			removed.add(previous);
+		}
+		added.add(marker);
+	}
+
+	// publishes the layer of all the quakes classified so far
+	private void publishQuakes() {
+		List<Marker> quakes = new ArrayList<Marker>(classified.values());
+		Collections.sort(quakes, NEWEST_FIRST);
+		publish(latest.get().update(quakes, removed, new ArrayList<Marker>(added)));
+		removed.clear();
+		added.clear();
+	}
+
+	private void publish(QuakeLayer layer) {
+		latest.set(layer);
+		listener.run();
+	}
+
+	private QuakeSnapshot loadSnapshot(long checksum) {
+		try {
+			return QuakeSnapshot.load(snapshotFile, checksum);
+		} catch (IOException e) {
+			System.out.println("Could not read the snapshot: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void saveSnapshot(long checksum) {
+		try {
+			QuakeSnapshot.write(snapshotFile, checksum, latest.get().getQuakeMarkers(), cityMarkers);
+		} catch (IOException e) {
+			System.out.println("Could not write the snapshot: " + e.getMessage());
+		}
+	}
+}
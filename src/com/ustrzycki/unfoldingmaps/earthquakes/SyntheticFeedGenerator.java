@@ -0,0 +1,434 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates made-up but realistic looking earthquakes, to test the map
+ * with many more quakes than the real feeds hold.
+ *
+ * The quakes lie along the major plate boundaries, a rough table of which
+ * is kept in BOUNDARIES, spread around them more widely on subduction
+ * zones and collision belts than on ridges; a few per cent are anywhere.
+ * Magnitudes follow Gutenberg-Richter (b = 1) from MIN_MAGNITUDE up; the
+ * depths are shallow except on subduction zones, which also have
+ * intermediate and deep quakes. A quake of magnitude 5 or more starts an
+ * aftershock sequence, and part of the following quakes are its
+ * aftershocks, around its epicentre and smaller than it. The times come
+ * one after another over the given number of days before the end time,
+ * so the quakes are generated oldest first.
+ *
+ * The same seed always gives the same quakes. Every quake is written as
+ * soon as it is generated, so the output can be any size:
+ * <ul>
+ * <li>an Atom feed in the format of the USGS feeds, which ParseFeed reads,
+ * with the "Age" category counted back from the end time</li>
+ * <li>a CSV in the format of the USGS catalog search, which
+ * HistoricalImporter imports</li>
+ * <li>a HistoricalCatalog directory, imported straight away</li>
+ * </ul>
+ *
+ * Usage: SyntheticFeedGenerator output.atom|output.csv|catalogDirectory count [seed [days]]
+ *
+ * @author DariuszUstrzycki
+ */
+public class SyntheticFeedGenerator {
+
+	/** Receives the generated quakes, oldest first */
+	public interface Sink {
+		void quake(long number, long time, float lat, float lon, float depth, float magnitude) throws IOException;
+	}
+
+	public static final float MIN_MAGNITUDE = 2.5f;
+	private static final float MAX_MAGNITUDE = 9.5f;
+
+	// the time of data/2.5_week.atom, so the same seed gives the same file
+	public static final long DEFAULT_END_TIME = Instant.parse("2015-08-07T20:54:48Z").toEpochMilli();
+
+	private static final long HOUR = 3600 * 1000L;
+	private static final long DAY = 24 * HOUR;
+
+	// share of the quakes away from any boundary
+	private static final double BACKGROUND_SHARE = 0.03;
+
+	// share of the quakes that are aftershocks, while a sequence is going on
+	private static final double AFTERSHOCK_SHARE = 0.35;
+	private static final float SEQUENCE_MAGNITUDE = 5;
+	private static final long SEQUENCE_TIME = 10 * DAY;
+	private static final int MAX_SEQUENCES = 64;
+
+	private static final DateTimeFormatter FEED_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+			.withZone(ZoneOffset.UTC);
+
+	private enum Kind {
+		// activity per degree of boundary, spread in degrees
+		SUBDUCTION(1, 1.0), COLLISION(0.5, 1.5), TRANSFORM(0.4, 0.4), RIDGE(0.15, 0.3);
+
+		final double activity;
+		final double spread;
+
+		Kind(double activity, double spread) {
+			this.activity = activity;
+			this.spread = spread;
+		}
+	}
+
+	/*
+	 * The plate boundaries as lat, lon polylines. Longitudes are not wrapped
+	 * at the date line, so a line can cross it; they are wrapped when a
+	 * quake is placed.
+	 */
+	private static final Object[][] BOUNDARIES = {
+			// the Pacific ring of fire
+			{ Kind.SUBDUCTION, new float[] { 60, -147, 57, -155, 54, -162, 52, -170, 51.5f, -178, 51.5f, -185, 53, -195 } },
+			{ Kind.SUBDUCTION, new float[] { 53, 160, 47, 153, 43, 147, 38, 143, 35, 141.5f } },
+			{ Kind.SUBDUCTION, new float[] { 35, 141.5f, 28, 142.5f, 20, 145.5f, 13, 145, 11, 142 } },
+			{ Kind.SUBDUCTION, new float[] { 33, 132, 28, 130, 24, 124, 22, 121, 15, 120, 10, 126.5f, 5, 127 } },
+			{ Kind.SUBDUCTION, new float[] { 14, 93, 6, 94, 2, 96.5f, -3, 100, -7, 105, -10, 112, -11, 120, -9, 128 } },
+			{ Kind.SUBDUCTION, new float[] { -4, 131, -3, 138, -5, 146, -6, 152, -8, 157, -11, 162, -15, 167, -20, 169,
+					-22, 170 } },
+			{ Kind.SUBDUCTION, new float[] { -15, -173, -20, -174, -25, -176, -30, -177.5f, -35, -179, -38, -182, -42,
+					-186, -45, -192 } },
+			{ Kind.SUBDUCTION, new float[] { 20, -106, 16, -99, 14, -92, 12, -88, 10, -85, 8, -83 } },
+			{ Kind.SUBDUCTION, new float[] { 5, -78, 0, -80, -5, -81, -12, -78, -18, -71, -25, -70.5f, -33, -72, -40,
+					-74, -46, -75.5f } },
+			{ Kind.SUBDUCTION, new float[] { 49, -127, 44, -125, 40.5f, -124.5f } },
+			{ Kind.SUBDUCTION, new float[] { 18, -64, 15, -61, 12, -61 } },
+			{ Kind.SUBDUCTION, new float[] { 40, 20, 36, 22, 35, 26, 36, 28.5f } },
+			// the Alpide belt
+			{ Kind.COLLISION, new float[] { 37, -10, 37, 5, 38, 15, 41, 20, 39, 27, 39, 35, 38, 40, 36, 46, 34, 48, 30,
+					52, 27, 56, 28, 62 } },
+			{ Kind.COLLISION, new float[] { 34, 70, 33, 74, 30, 80, 28, 84, 27, 90, 28, 95, 25, 96, 20, 95, 16, 95 } },
+			{ Kind.COLLISION, new float[] { 41, 70, 42, 80, 40, 90, 35, 100, 30, 102, 25, 101 } },
+			// transform faults
+			{ Kind.TRANSFORM, new float[] { 40.5f, -124.5f, 37, -122, 34.5f, -119, 33, -116, 31, -114, 27, -111, 23,
+					-108.5f } },
+			{ Kind.TRANSFORM, new float[] { 18, -64, 19, -70, 19.5f, -77, 16, -86, 15, -90 } },
+			{ Kind.TRANSFORM, new float[] { -54, -66, -55, -50, -57, -30, -60, -26, -60, -45 } },
+			// mid-ocean ridges and rifts
+			{ Kind.RIDGE, new float[] { 66, -18, 60, -29, 52, -30, 45, -28, 38, -30, 30, -42, 23, -45, 15, -46, 7, -35,
+					0, -20, -8, -13, -20, -12, -35, -16, -45, -14, -54, -2 } },
+			{ Kind.RIDGE, new float[] { 66, -18, 72, -5, 78, 5, 84, 60, 86, 120 } },
+			{ Kind.RIDGE, new float[] { 20, -108, 10, -104, 0, -102, -10, -110, -20, -113, -35, -110, -45, -115, -55,
+					-120, -62, -160 } },
+			{ Kind.RIDGE, new float[] { 27, 34, 20, 39, 13, 43, 12, 45, 12, 57, 5, 62, -5, 68, -15, 66, -25, 70, -30,
+					75, -40, 80, -48, 100, -52, 130, -58, 150, -62, 160 } },
+			{ Kind.RIDGE, new float[] { -25, 70, -32, 58, -40, 45, -50, 20, -54, -2 } },
+			{ Kind.RIDGE, new float[] { 12, 42, 5, 38, 0, 36, -5, 35, -10, 34, -15, 35 } }, };
+
+	private final long seed;
+	private final long endTime;
+	private final int days;
+
+	// the segments of all the boundaries, picked by their cumulative weight
+	private final List<float[]> segments = new ArrayList<float[]>();
+	private final List<Kind> kinds = new ArrayList<Kind>();
+	private final double[] cumulativeWeights;
+
+	public SyntheticFeedGenerator(long seed, long endTime, int days) {
+		this.seed = seed;
+		this.endTime = endTime;
+		this.days = days;
+
+		List<Double> weights = new ArrayList<Double>();
+		double total = 0;
+		for (Object[] boundary : BOUNDARIES) {
+			Kind kind = (Kind) boundary[0];
+			float[] line = (float[]) boundary[1];
+			for (int i = 0; i + 3 < line.length; i += 2) {
+				float[] segment = { line[i], line[i + 1], line[i + 2], line[i + 3] };
+				double dLat = segment[2] - segment[0];
+				double dLon = (segment[3] - segment[1]) * Math.cos(Math.toRadians((segment[0] + segment[2]) / 2));
+				total += kind.activity * Math.sqrt(dLat * dLat + dLon * dLon);
+				segments.add(segment);
+				kinds.add(kind);
+				weights.add(total);
+			}
+		}
+		cumulativeWeights = new double[weights.size()];
+		for (int i = 0; i < cumulativeWeights.length; i++) {
+			cumulativeWeights[i] = weights.get(i) / total;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println(
+					"Usage: SyntheticFeedGenerator output.atom|output.csv|catalogDirectory count [seed [days]]");
+			return;
+		}
+
+		File output = new File(args[0]);
+		long count = Long.parseLong(args[1]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+		int days = args.length > 3 ? Integer.parseInt(args[3]) : 7;
+		SyntheticFeedGenerator generator = new SyntheticFeedGenerator(seed, DEFAULT_END_TIME, days);
+
+		long start = System.nanoTime();
+		String name = output.getName().toLowerCase();
+		if (name.endsWith(".atom") || name.endsWith(".csv")) {
+			Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(output), 1 << 16), UTF_8);
+			try {
+				if (name.endsWith(".atom")) {
+					generator.writeAtom(out, count);
+				} else {
+					generator.writeCsv(out, count);
+				}
+			} finally {
+				out.close();
+			}
+		} else {
+			generator.writeCatalog(output, count);
+		}
+		System.out.printf("Generated %d quakes into %s in %.2f s%n", count, output, (System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Writes count quakes as an Atom feed in the format of the USGS feeds.
+	 */
+	public void writeAtom(Writer out, long count) throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:georss=\"http://www.georss.org/georss\">");
+		out.write("<title>Synthetic Magnitude 2.5+ Earthquakes</title>");
+		out.write("<updated>" + Instant.ofEpochMilli(endTime) + "</updated>");
+		out.write("<id>urn:earthquake-synthetic:" + seed + "</id>\n");
+
+		// one builder for every entry; String.format would take most of the time
+		StringBuilder entry = new StringBuilder(1024);
+		generate(count, (number, time, lat, lon, depth, magnitude) -> {
+			entry.setLength(0);
+			entry.append("<entry><id>urn:earthquake-synthetic:").append(seed).append(':').append(number);
+			entry.append("</id><title>M ");
+			appendFixed(entry, magnitude, 1).append(" - ");
+			appendPlace(entry, lat, lon, "\u00b0");
+			entry.append("</title><updated>").append(Instant.ofEpochMilli(time + HOUR));
+			entry.append("</updated><summary type=\"html\"><![CDATA[<dl><dt>Time</dt><dd>");
+			FEED_TIME.formatTo(Instant.ofEpochMilli(time), entry);
+			entry.append(" UTC</dd><dt>Location</dt><dd>");
+			appendPlace(entry, lat, lon, "&deg;");
+			entry.append("</dd><dt>Depth</dt><dd>");
+			appendFixed(entry, depth, 1).append(" km</dd></dl>]]></summary><georss:point>");
+			appendFixed(entry, lat, 4).append(' ');
+			appendFixed(entry, lon, 4).append("</georss:point><georss:elev>").append(-Math.round(depth * 1000));
+			entry.append("</georss:elev>");
+			String age = ageTerm(time);
+			if (age != null) {
+				entry.append("<category label=\"Age\" term=\"").append(age).append("\"/>");
+			}
+			entry.append("<category label=\"Magnitude\" term=\"Magnitude ").append((int) magnitude);
+			entry.append("\"/></entry>\n");
+			out.append(entry);
+		});
+		out.write("</feed>\n");
+	}
+
+	/**
+	 * Writes count quakes as a CSV in the format of the USGS catalog search.
+	 */
+	public void writeCsv(Writer out, long count) throws IOException {
+		out.write("time,latitude,longitude,depth,mag,id\n");
+		StringBuilder line = new StringBuilder(128);
+		generate(count, (number, time, lat, lon, depth, magnitude) -> {
+			line.setLength(0);
+			line.append(Instant.ofEpochMilli(time)).append(',');
+			appendFixed(line, lat, 4).append(',');
+			appendFixed(line, lon, 4).append(',');
+			appendFixed(line, depth, 1).append(',');
+			appendFixed(line, magnitude, 1).append(",synthetic").append(seed).append('-').append(number).append('\n');
+			out.append(line);
+		});
+	}
+
+	/**
+	 * Imports count quakes into the HistoricalCatalog directory.
+	 */
+	public void writeCatalog(File directory, long count) throws IOException {
+		HistoricalImporter importer = new HistoricalImporter(directory);
+		generate(count, (number, time, lat, lon, depth, magnitude) -> importer.add(time, lat, lon, depth, magnitude));
+		importer.finish();
+	}
+
+	/**
+	 * Generates count quakes into the sink, oldest first. Magnitudes are
+	 * rounded to one decimal place and depths to 0.1 km, as in the feeds.
+	 */
+	public void generate(long count, Sink sink) throws IOException {
+		Random random = new Random(seed);
+		List<Sequence> sequences = new ArrayList<Sequence>();
+
+		double meanInterval = (double) days * DAY / Math.max(1, count);
+		double time = endTime - (double) days * DAY;
+
+		for (long number = 0; number < count; number++) {
+			time += -Math.log(1 - random.nextDouble()) * meanInterval;
+			long now = (long) time;
+			sequences.removeIf(sequence -> sequence.endTime < now || sequence.remaining == 0);
+
+			float lat, lon, depth, magnitude;
+			if (!sequences.isEmpty() && random.nextDouble() < AFTERSHOCK_SHARE) {
+				// an aftershock, within the rupture of its mainshock
+				Sequence sequence = sequences.get(random.nextInt(sequences.size()));
+				sequence.remaining--;
+				double spread = Math.pow(10, 0.5 * sequence.magnitude - 1.8) / 111;
+				lat = sequence.lat + (float) (random.nextGaussian() * spread);
+				lon = sequence.lon + (float) (random.nextGaussian() * spread / cos(sequence.lat));
+				depth = Math.max(0, sequence.depth + (float) random.nextGaussian() * 5);
+				do {
+					magnitude = magnitude(random);
+				} while (magnitude > sequence.magnitude - 1);
+			} else {
+				Kind kind;
+				if (random.nextDouble() < BACKGROUND_SHARE) {
+					// anywhere on the globe, shallow
+					kind = Kind.RIDGE;
+					lat = (float) Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+					lon = 360 * random.nextFloat() - 180;
+				} else {
+					int at = segment(random.nextDouble());
+					kind = kinds.get(at);
+					float[] segment = segments.get(at);
+					float along = random.nextFloat();
+					lat = segment[0] + along * (segment[2] - segment[0]);
+					lon = segment[1] + along * (segment[3] - segment[1]);
+					lat += (float) (random.nextGaussian() * kind.spread);
+					lon += (float) (random.nextGaussian() * kind.spread / cos(lat));
+				}
+				depth = depth(random, kind);
+				magnitude = magnitude(random);
+
+				if (magnitude >= SEQUENCE_MAGNITUDE && sequences.size() < MAX_SEQUENCES) {
+					// about ten times fewer aftershocks per magnitude down
+					int size = (int) Math.min(10000, Math.pow(10, magnitude - MIN_MAGNITUDE - 1.2));
+					sequences.add(new Sequence(lat, lon, depth, magnitude, size, now + SEQUENCE_TIME));
+				}
+			}
+
+			lat = Math.max(-85, Math.min(85, lat));
+			lon = wrap(lon);
+			depth = Math.round(depth * 10) / 10f;
+			sink.quake(number, now, lat, lon, depth, magnitude);
+		}
+	}
+
+	// the USGS feed's "Age" term of a quake at the time, null if older than a month
+	private String ageTerm(long time) {
+		long age = endTime - time;
+		if (age < HOUR) {
+			return "Past Hour";
+		} else if (age < DAY) {
+			return "Past Day";
+		} else if (age < 7 * DAY) {
+			return "Past Week";
+		} else if (age < 30 * DAY) {
+			return "Past Month";
+		}
+		return null;
+	}
+
+	// e.g. 4.306&deg;S 151.838&deg;E
+	private static void appendPlace(StringBuilder out, float lat, float lon, String degrees) {
+		appendFixed(out, Math.abs(lat), 3).append(degrees).append(lat < 0 ? 'S' : 'N').append(' ');
+		appendFixed(out, Math.abs(lon), 3).append(degrees).append(lon < 0 ? 'W' : 'E');
+	}
+
+	// the value rounded to the given number of decimal places, like %.nf
+	private static StringBuilder appendFixed(StringBuilder out, float value, int decimals) {
+		long scale = 1;
+		for (int i = 0; i < decimals; i++) {
+			scale *= 10;
+		}
+		long scaled = Math.round(Math.abs((double) value) * scale);
+		if (value < 0 && scaled != 0) {
+			out.append('-');
+		}
+		out.append(scaled / scale).append('.');
+		String fraction = Long.toString(scaled % scale);
+		for (int i = fraction.length(); i < decimals; i++) {
+			out.append('0');
+		}
+		return out.append(fraction);
+	}
+
+	// the segment at the given share of the total weight
+	private int segment(double share) {
+		int low = 0;
+		int high = cumulativeWeights.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulativeWeights[middle] < share) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// Gutenberg-Richter with b = 1, to one decimal place
+	private static float magnitude(Random random) {
+		double magnitude;
+		do {
+			magnitude = MIN_MAGNITUDE - Math.log10(1 - random.nextDouble());
+		} while (magnitude > MAX_MAGNITUDE);
+		return (float) Math.floor(magnitude * 10) / 10;
+	}
+
+	// shallow crustal quakes, but also intermediate and deep ones on subduction zones
+	private static float depth(Random random, Kind kind) {
+		double depth = -Math.log(1 - random.nextDouble()) * (kind == Kind.SUBDUCTION ? 20 : 10);
+		if (kind == Kind.SUBDUCTION) {
+			double share = random.nextDouble();
+			if (share > 0.95) {
+				return (float) (300 + 400 * random.nextDouble());
+			} else if (share > 0.75) {
+				return (float) (70 + 230 * random.nextDouble());
+			}
+			return (float) Math.min(depth, 70);
+		}
+		return (float) Math.min(depth, kind == Kind.RIDGE ? 35 : 50);
+	}
+
+	private static float cos(float lat) {
+		return (float) Math.max(0.1, Math.cos(Math.toRadians(lat)));
+	}
+
+	private static float wrap(float lon) {
+		while (lon > 180) {
+			lon -= 360;
+		}
+		while (lon < -180) {
+			lon += 360;
+		}
+		return lon;
+	}
+
+	/*
+	 * An aftershock sequence going on.
+	 */
+	private static class Sequence {
+		final float lat, lon, depth, magnitude;
+		final long endTime;
+		int remaining;
+
+		Sequence(float lat, float lon, float depth, float magnitude, int remaining, long endTime) {
+			this.lat = lat;
+			this.lon = lon;
+			this.depth = depth;
+			this.magnitude = magnitude;
+			this.remaining = remaining;
+			this.endTime = endTime;
+		}
+	}
+}
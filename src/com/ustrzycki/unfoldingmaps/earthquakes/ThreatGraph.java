@@ -0,0 +1,231 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/**
+ * Which cities lie inside the threat circle of which earthquakes.
+ *
+ * The graph is built once after loading, so a click on a city or a quake
+ * only walks the edges of the clicked marker instead of measuring the
+ * distance to every other marker. Both sides of every edge are kept in
+ * primitive int adjacency arrays: the cities threatened by each quake and
+ * the quakes threatening each city.
+ *
+ * The cities are fixed; quakes can be added at any time with addQuake,
+ * which only looks at the cities near the new quake (through a k-d tree
+ * of the cities), and taken out with removeQuake, which only touches the
+ * edges of the quake. A refresh applies the delta of the QuakeCatalog to
+ * a copy of the graph of the last layer, so the published graph is never
+ * changed.
+ *
+ * @author DariuszUstrzycki
+ */
+public class ThreatGraph {
+
+	// never changed after the constructor, so shared by the copies
+	private final List<Marker> cities;
+	private final SphericalKdTree cityTree;
+	private final Map<Marker, Integer> cityIndex;
+
+	private final List<EarthquakeMarker> quakes;
+	private final Map<Marker, Integer> quakeIndex;
+
+	// cities threatened by each quake, quakeCities[q][0] to quakeCities[q][quakeDegree[q] - 1];
+	// the array of a quake is never changed once it is set
+	private int[][] quakeCities = new int[16][];
+	private int[] quakeDegree = new int[16];
+
+	// quakes threatening each city
+	private final int[][] cityQuakes;
+	private final int[] cityDegree;
+
+	public ThreatGraph(List<Marker> cities) {
+		this.cities = cities;
+		this.cityTree = SphericalKdTree.of(cities);
+		this.cityIndex = new IdentityHashMap<Marker, Integer>();
+		this.quakes = new ArrayList<EarthquakeMarker>();
+		this.quakeIndex = new IdentityHashMap<Marker, Integer>();
+		this.cityQuakes = new int[cities.size()][];
+		this.cityDegree = new int[cities.size()];
+
+		for (int i = 0; i < cities.size(); i++) {
+			cityIndex.put(cities.get(i), i);
+			cityQuakes[i] = new int[4];
+		}
+	}
+
+	private ThreatGraph(ThreatGraph graph) {
+		this.cities = graph.cities;
+		this.cityTree = graph.cityTree;
+		this.cityIndex = graph.cityIndex;
+		this.quakes = new ArrayList<EarthquakeMarker>(graph.quakes);
+		this.quakeIndex = new IdentityHashMap<Marker, Integer>(graph.quakeIndex);
+		this.quakeCities = graph.quakeCities.clone();
+		this.quakeDegree = graph.quakeDegree.clone();
+
+		// the edges of the cities are changed in place, so they are copied
+		this.cityQuakes = new int[cities.size()][];
+		this.cityDegree = graph.cityDegree.clone();
+		for (int c = 0; c < cities.size(); c++) {
+			cityQuakes[c] = graph.cityQuakes[c].clone();
+		}
+	}
+
+	/**
+	 * Returns a copy of the graph, which can be changed without changing
+	 * this one. The cost grows with the number of quakes and edges, not with
+	 * the distance tests of adding the quakes again.
+	 */
+	public ThreatGraph copy() {
+		return new ThreatGraph(this);
+	}
+
+	/**
+	 * Adds the quakes and their edges to the graph.
+	 */
+	public void addQuakes(List<Marker> quakeMarkers) {
+		for (Marker quake : quakeMarkers) {
+			addQuake((EarthquakeMarker) quake);
+		}
+	}
+
+	/**
+	 * Adds a quake and the edges to the cities inside its threat circle.
+	 */
+	public void addQuake(EarthquakeMarker quake) {
+		if (quakeIndex.containsKey(quake)) {
+			return;
+		}
+
+		int q = quakes.size();
+		quakes.add(quake);
+		quakeIndex.put(quake, q);
+
+		if (q == quakeCities.length) {
+			quakeCities = Arrays.copyOf(quakeCities, 2 * q);
+			quakeDegree = Arrays.copyOf(quakeDegree, 2 * q);
+		}
+
+		// the tree finds the candidates; the final check is the same distance
+		// test the markers use, so the edges match what a full scan would give
+		double radius = quake.threatCircle();
+		SphericalKdTree.Neighbours near = cityTree.within(quake.getLocation(), radius * 1.001 + 1);
+
+		int[] edges = new int[near.size()];
+		int degree = 0;
+		for (int i = 0; i < near.size(); i++) {
+			int c = near.index(i);
+			if (cities.get(c).getDistanceTo(quake.getLocation()) <= radius) {
+				edges[degree++] = c;
+				addCityEdge(c, q);
+			}
+		}
+
+		quakeCities[q] = edges;
+		quakeDegree[q] = degree;
+	}
+
+	/**
+	 * Removes the quakes and their edges from the graph.
+	 */
+	public void removeQuakes(List<Marker> quakeMarkers) {
+		for (Marker quake : quakeMarkers) {
+			removeQuake(quake);
+		}
+	}
+
+	/**
+	 * Removes a quake and its edges. The last quake of the graph takes its
+	 * place, so only the edges of these two quakes are looked at.
+	 */
+	public void removeQuake(Marker quake) {
+		Integer removed = quakeIndex.remove(quake);
+		if (removed == null) {
+			return;
+		}
+
+		int q = removed;
+		for (int i = 0; i < quakeDegree[q]; i++) {
+			replaceCityEdge(quakeCities[q][i], q, -1);
+		}
+
+		int last = quakes.size() - 1;
+		EarthquakeMarker moved = quakes.remove(last);
+		if (q != last) {
+			quakes.set(q, moved);
+			quakeIndex.put(moved, q);
+			quakeCities[q] = quakeCities[last];
+			quakeDegree[q] = quakeDegree[last];
+			for (int i = 0; i < quakeDegree[q]; i++) {
+				replaceCityEdge(quakeCities[q][i], last, q);
+			}
+		}
+		quakeCities[last] = null;
+		quakeDegree[last] = 0;
+	}
+
+	/**
+	 * Returns the cities inside the threat circle of the quake.
+	 */
+	public List<Marker> citiesThreatenedBy(Marker quake) {
+		Integer q = quakeIndex.get(quake);
+		if (q == null) {
+			return new ArrayList<Marker>();
+		}
+
+		List<Marker> result = new ArrayList<Marker>(quakeDegree[q]);
+		for (int i = 0; i < quakeDegree[q]; i++) {
+			result.add(cities.get(quakeCities[q][i]));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the quakes which have the city inside their threat circle.
+	 */
+	public List<Marker> quakesThreatening(Marker city) {
+		Integer c = cityIndex.get(city);
+		if (c == null) {
+			return new ArrayList<Marker>();
+		}
+
+		List<Marker> result = new ArrayList<Marker>(cityDegree[c]);
+		for (int i = 0; i < cityDegree[c]; i++) {
+			result.add(quakes.get(cityQuakes[c][i]));
+		}
+		return result;
+	}
+
+	public int quakeCount() {
+		return quakes.size();
+	}
+
+	private void addCityEdge(int c, int q) {
+		if (cityDegree[c] == cityQuakes[c].length) {
+			cityQuakes[c] = Arrays.copyOf(cityQuakes[c], 2 * cityDegree[c]);
+		}
+		cityQuakes[c][cityDegree[c]++] = q;
+	}
+
+	// points the edge of the city to quake from to quake to instead, or
+	// removes it if to is -1 (the last edge of the city takes its place)
+	private void replaceCityEdge(int c, int from, int to) {
+		int[] edges = cityQuakes[c];
+		for (int i = 0; i < cityDegree[c]; i++) {
+			if (edges[i] == from) {
+				if (to >= 0) {
+					edges[i] = to;
+				} else {
+					edges[i] = edges[--cityDegree[c]];
+				}
+				return;
+			}
+		}
+	}
+}
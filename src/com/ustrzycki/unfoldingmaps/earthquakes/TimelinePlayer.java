@@ -0,0 +1,146 @@
+package com.ustrzycki.unfoldingmaps.earthquakes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+import parsing.QuakeRecord;
+
+/**
+ * Plays the quakes back in the order they happened.
+ *
+ * The quakes are sorted by time once. A quake is active from its time
+ * until window milliseconds later, and since every quake is active for the
+ * same time, the active quakes are always a run of neighbours in the sorted
+ * array. Moving the clock forward only moves the two ends of that run past
+ * the quakes which became active or expired, so a frame costs as much as
+ * the changes it makes, and getActive is a view of the run, not a copy.
+ * The view is only replaced when the run changes, so the sketch can tell
+ * by its identity whether there is anything new to draw.
+ *
+ * Quakes without a time are not played.
+ *
+ * @author DariuszUstrzycki
+ */
+public class TimelinePlayer {
+
+	private final List<Marker> sorted;
+	private final long[] times;
+	private final long window;
+
+	// simulated time now and how much of it passes per real millisecond
+	private long clock;
+	private final double speed;
+
+	// the active quakes are sorted[first] to sorted[end - 1]
+	private int first;
+	private int end;
+	private List<Marker> active;
+
+	/**
+	 * Creates a player which shows every quake for window milliseconds of
+	 * simulated time and plays the whole time span in duration real
+	 * milliseconds.
+	 */
+	public TimelinePlayer(List<Marker> quakeMarkers, long window, long duration) {
+		List<EarthquakeMarker> quakes = new ArrayList<EarthquakeMarker>();
+		for (Marker marker : quakeMarkers) {
+			EarthquakeMarker quake = (EarthquakeMarker) marker;
+			if (quake.getRecord().getTime() != QuakeRecord.NO_TIME) {
+				quakes.add(quake);
+			}
+		}
+		Collections.sort(quakes, Comparator.comparingLong(quake -> quake.getRecord().getTime()));
+
+		this.sorted = Collections.unmodifiableList(Arrays.<Marker>asList(quakes.toArray(new Marker[quakes.size()])));
+		this.times = new long[quakes.size()];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = quakes.get(i).getRecord().getTime();
+		}
+		this.window = window;
+
+		long span = times.length > 0 ? times[times.length - 1] - times[0] + window : 0;
+		this.speed = (double) span / Math.max(1, duration);
+		rewind();
+	}
+
+	/**
+	 * Starts again from the first quake.
+	 */
+	public void rewind() {
+		clock = times.length > 0 ? times[0] : 0;
+		first = 0;
+		end = 0;
+		active = sorted.subList(0, 0);
+		advanceTo(clock);
+	}
+
+	/**
+	 * Moves the clock forward by the given real time.
+	 */
+	public void advance(long elapsedMillis) {
+		advanceTo(clock + (long) (elapsedMillis * speed));
+	}
+
+	/**
+	 * Moves the clock to the given simulated time; it never goes back.
+	 */
+	public void advanceTo(long time) {
+		clock = Math.max(clock, time);
+		int oldFirst = first;
+		int oldEnd = end;
+
+		// quakes which have happened by now become active...
+		while (end < times.length && times[end] <= clock) {
+			end++;
+		}
+		// ...and the ones older than the window expire
+		while (first < end && times[first] <= clock - window) {
+			first++;
+		}
+
+		if (first != oldFirst || end != oldEnd) {
+			active = sorted.subList(first, end);
+		}
+	}
+
+	/**
+	 * The quakes active now, oldest first. The same list is returned until
+	 * a quake becomes active or expires.
+	 */
+	public List<Marker> getActive() {
+		return active;
+	}
+
+	/**
+	 * All the quakes played, oldest first. The active quakes are the ones
+	 * from getActiveStart() to getActiveEnd() - 1, so a drawer can keep
+	 * things made of fixed runs of this list from frame to frame.
+	 */
+	public List<Marker> getQuakes() {
+		return sorted;
+	}
+
+	/** Index in getQuakes() of the oldest active quake */
+	public int getActiveStart() {
+		return first;
+	}
+
+	/** Index in getQuakes() after the newest active quake */
+	public int getActiveEnd() {
+		return end;
+	}
+
+	/** Simulated time now, in milliseconds since the epoch */
+	public long getClock() {
+		return clock;
+	}
+
+	/** Whether the last quake has been played and has expired */
+	public boolean isFinished() {
+		return first == times.length;
+	}
+}
@@ -0,0 +1,26 @@
+package com.ustrzycki.unfoldingmaps.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The classification of a batch of quakes, by isLand, into land and ocean
+ * quake markers.
+ *
+ * @author DariuszUstrzycki
+ */
+@Name("com.ustrzycki.unfoldingmaps.Classification")
+@Label("Quake Classification")
+@Category({ "Earthquake Map", "Ingestion" })
+@Description("A batch of quakes classified into land and ocean quakes")
+class ClassificationEvent extends Event {
+
+	@Label("Quakes")
+	int quakes;
+
+	@Label("Land Quakes")
+	int landQuakes;
+}
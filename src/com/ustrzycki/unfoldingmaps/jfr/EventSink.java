@@ -0,0 +1,32 @@
+package com.ustrzycki.unfoldingmaps.jfr;
+
+/**
+ * What FlightEvents needs of the Flight Recorder. Only the interface is
+ * seen by the rest of the code, so it compiles and runs without jdk.jfr.
+ *
+ * Every begin method returns null if its event is not recorded.
+ *
+ * @author DariuszUstrzycki
+ */
+interface EventSink {
+
+	Object beginParse(String source);
+
+	void endParse(Object event, int entries, long bytes);
+
+	Object beginClassification();
+
+	void endClassification(Object event, int quakes, int landQuakes);
+
+	Object beginNearestQuakes();
+
+	void endNearestQuakes(Object event, double latitude, double longitude, int found, double nearestKm);
+
+	Object beginThreatFilter();
+
+	void endThreatFilter(Object event, String clicked, int markers, int leftVisible);
+
+	Object beginFrame();
+
+	void endFrame(Object event, String mode, int quakes);
+}
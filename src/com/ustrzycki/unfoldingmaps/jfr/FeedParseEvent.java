@@ -0,0 +1,31 @@
+package com.ustrzycki.unfoldingmaps.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The parsing of an earthquake feed, from opening it to its last entry.
+ *
+ * @author DariuszUstrzycki
+ */
+@Name("com.ustrzycki.unfoldingmaps.FeedParse")
+@Label("Feed Parse")
+@Category({ "Earthquake Map", "Ingestion" })
+@Description("An earthquake feed read and parsed by EarthquakeFeedReader")
+class FeedParseEvent extends Event {
+
+	@Label("Source")
+	String source;
+
+	@Label("Entries")
+	@Description("The entries with a location")
+	int entries;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+}
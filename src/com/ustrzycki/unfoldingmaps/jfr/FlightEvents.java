@@ -0,0 +1,106 @@
+package com.ustrzycki.unfoldingmaps.jfr;
+
+/**
+ * JDK Flight Recorder events of the loading of the feeds and of the user's
+ * interactions, so a recording shows them next to the GC pauses and the
+ * allocations.
+ *
+ * The events are emitted in pairs of calls: a begin method returns the
+ * event, or null when it is not recorded, and the end method takes it
+ * back with the figures of the event:
+ *
+ * <pre>
+ * Object event = FlightEvents.beginFrame();
+ * ...
+ * FlightEvents.endFrame(event, mode, quakes);
+ * </pre>
+ *
+ * The events themselves extend jdk.jfr.Event, which only exists from JDK
+ * 11 and 8u272 on, so they are only loaded, through JfrEventSink, when the
+ * running JVM has it. On an older one every begin method returns null at
+ * once. When no recording is running, or the event is disabled in its
+ * settings, the begin methods return null too, before creating anything,
+ * and the ends are skipped; the figures which only an event needs should
+ * only be gathered when the event is not null.
+ *
+ * @author DariuszUstrzycki
+ */
+public final class FlightEvents {
+
+	private static final EventSink SINK = load();
+
+	private FlightEvents() {
+	}
+
+	/** Whether the JVM has the Flight Recorder events at all */
+	public static boolean isAvailable() {
+		return SINK != null;
+	}
+
+	/** The parsing of a feed from the given source (a file name or URL, or null) */
+	public static Object beginParse(String source) {
+		return SINK == null ? null : SINK.beginParse(source);
+	}
+
+	public static void endParse(Object event, int entries, long bytes) {
+		if (event != null) {
+			SINK.endParse(event, entries, bytes);
+		}
+	}
+
+	/** The classification of a batch of quakes into land and ocean quakes */
+	public static Object beginClassification() {
+		return SINK == null ? null : SINK.beginClassification();
+	}
+
+	public static void endClassification(Object event, int quakes, int landQuakes) {
+		if (event != null) {
+			SINK.endClassification(event, quakes, landQuakes);
+		}
+	}
+
+	/** The search for the quakes nearest to the user's location */
+	public static Object beginNearestQuakes() {
+		return SINK == null ? null : SINK.beginNearestQuakes();
+	}
+
+	public static void endNearestQuakes(Object event, double latitude, double longitude, int found,
+			double nearestKm) {
+		if (event != null) {
+			SINK.endNearestQuakes(event, latitude, longitude, found, nearestKm);
+		}
+	}
+
+	/** The hiding of all the markers but a clicked one and its threat circle */
+	public static Object beginThreatFilter() {
+		return SINK == null ? null : SINK.beginThreatFilter();
+	}
+
+	public static void endThreatFilter(Object event, String clicked, int markers, int leftVisible) {
+		if (event != null) {
+			SINK.endThreatFilter(event, clicked, markers, leftVisible);
+		}
+	}
+
+	/** One frame drawn by the sketch */
+	public static Object beginFrame() {
+		return SINK == null ? null : SINK.beginFrame();
+	}
+
+	public static void endFrame(Object event, String mode, int quakes) {
+		if (event != null) {
+			SINK.endFrame(event, mode, quakes);
+		}
+	}
+
+	// the JFR sink if the JVM has the Flight Recorder, null otherwise
+	private static EventSink load() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (EventSink) Class.forName(FlightEvents.class.getPackage().getName() + ".JfrEventSink")
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.ustrzycki.unfoldingmaps.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One frame drawn by the sketch, one call of draw().
+ *
+ * @author DariuszUstrzycki
+ */
+@Name("com.ustrzycki.unfoldingmaps.Frame")
+@Label("Frame")
+@Category({ "Earthquake Map", "Rendering" })
+@Description("A frame drawn by EarthquakeCityMap.draw")
+@StackTrace(false)
+class FrameEvent extends Event {
+
+	@Label("Mode")
+	String mode;
+
+	@Label("Quakes Shown")
+	int quakes;
+}
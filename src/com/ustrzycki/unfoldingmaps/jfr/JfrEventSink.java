@@ -0,0 +1,117 @@
+package com.ustrzycki.unfoldingmaps.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+/**
+ * Emits the events of FlightEvents to the Flight Recorder. Loaded by
+ * reflection, and only if the JVM has jdk.jfr.
+ *
+ * An event is only created when its type is enabled, that is when a
+ * recording is running with the event turned on. Its figures are only set
+ * if it is going to be committed, after its threshold is checked.
+ *
+ * @author DariuszUstrzycki
+ */
+class JfrEventSink implements EventSink {
+
+	private static final EventType PARSE = EventType.getEventType(FeedParseEvent.class);
+	private static final EventType CLASSIFICATION = EventType.getEventType(ClassificationEvent.class);
+	private static final EventType NEAREST_QUAKES = EventType.getEventType(NearestQuakesEvent.class);
+	private static final EventType THREAT_FILTER = EventType.getEventType(ThreatFilterEvent.class);
+	private static final EventType FRAME = EventType.getEventType(FrameEvent.class);
+
+	@Override
+	public Object beginParse(String source) {
+		if (!PARSE.isEnabled()) {
+			return null;
+		}
+		FeedParseEvent event = new FeedParseEvent();
+		event.source = source;
+		return begin(event);
+	}
+
+	@Override
+	public void endParse(Object event, int entries, long bytes) {
+		FeedParseEvent parse = (FeedParseEvent) event;
+		if (end(parse)) {
+			parse.entries = entries;
+			parse.bytes = bytes;
+			parse.commit();
+		}
+	}
+
+	@Override
+	public Object beginClassification() {
+		return CLASSIFICATION.isEnabled() ? begin(new ClassificationEvent()) : null;
+	}
+
+	@Override
+	public void endClassification(Object event, int quakes, int landQuakes) {
+		ClassificationEvent classification = (ClassificationEvent) event;
+		if (end(classification)) {
+			classification.quakes = quakes;
+			classification.landQuakes = landQuakes;
+			classification.commit();
+		}
+	}
+
+	@Override
+	public Object beginNearestQuakes() {
+		return NEAREST_QUAKES.isEnabled() ? begin(new NearestQuakesEvent()) : null;
+	}
+
+	@Override
+	public void endNearestQuakes(Object event, double latitude, double longitude, int found, double nearestKm) {
+		NearestQuakesEvent nearest = (NearestQuakesEvent) event;
+		if (end(nearest)) {
+			nearest.latitude = latitude;
+			nearest.longitude = longitude;
+			nearest.found = found;
+			nearest.nearestKm = nearestKm;
+			nearest.commit();
+		}
+	}
+
+	@Override
+	public Object beginThreatFilter() {
+		return THREAT_FILTER.isEnabled() ? begin(new ThreatFilterEvent()) : null;
+	}
+
+	@Override
+	public void endThreatFilter(Object event, String clicked, int markers, int leftVisible) {
+		ThreatFilterEvent filter = (ThreatFilterEvent) event;
+		if (end(filter)) {
+			filter.clicked = clicked;
+			filter.markers = markers;
+			filter.leftVisible = leftVisible;
+			filter.commit();
+		}
+	}
+
+	@Override
+	public Object beginFrame() {
+		return FRAME.isEnabled() ? begin(new FrameEvent()) : null;
+	}
+
+	@Override
+	public void endFrame(Object event, String mode, int quakes) {
+		FrameEvent frame = (FrameEvent) event;
+		if (end(frame)) {
+			frame.mode = mode;
+			frame.quakes = quakes;
+			frame.commit();
+		}
+	}
+
+	private static Event begin(Event event) {
+		event.begin();
+		return event;
+	}
+
+	// ends the event; whether it is to be committed
+	private static boolean end(Event event) {
+		event.end();
+		return event.shouldCommit();
+	}
+}
@@ -0,0 +1,32 @@
+package com.ustrzycki.unfoldingmaps.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The search for the quakes nearest to the user's location
+ * (distanceToCustomLocation).
+ *
+ * @author DariuszUstrzycki
+ */
+@Name("com.ustrzycki.unfoldingmaps.NearestQuakes")
+@Label("Nearest Quakes")
+@Category({ "Earthquake Map", "Interaction" })
+@Description("The quakes nearest to the location set by the user")
+class NearestQuakesEvent extends Event {
+
+	@Label("Latitude")
+	double latitude;
+
+	@Label("Longitude")
+	double longitude;
+
+	@Label("Quakes Found")
+	int found;
+
+	@Label("Nearest Distance (km)")
+	double nearestKm;
+}
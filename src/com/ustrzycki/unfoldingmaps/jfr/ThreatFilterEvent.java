@@ -0,0 +1,32 @@
+package com.ustrzycki.unfoldingmaps.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The hiding of the markers after a click, leaving the clicked marker and
+ * the cities or quakes of its threat circle (hideMarkers).
+ *
+ * @author DariuszUstrzycki
+ */
+@Name("com.ustrzycki.unfoldingmaps.ThreatFilter")
+@Label("Threat Filter")
+@Category({ "Earthquake Map", "Interaction" })
+@Description("The markers hidden after a click on a city or a quake")
+class ThreatFilterEvent extends Event {
+
+	@Label("Clicked")
+	@Description("The kind of the clicked marker")
+	String clicked;
+
+	@Label("Markers")
+	@Description("The quake and city markers looked at")
+	int markers;
+
+	@Label("Left Visible")
+	@Description("The markers in the threat circle, left visible")
+	int leftVisible;
+}
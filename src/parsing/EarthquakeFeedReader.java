@@ -0,0 +1,291 @@
+package parsing;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.ustrzycki.unfoldingmaps.jfr.FlightEvents;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+
+/**
+ * Streaming reader for the USGS Atom earthquake feed.
+ *
+ * Unlike ParseFeed.parseEarthquake, which used to build a DOM of the whole
+ * feed, this reader pulls one <entry> at a time from the stream, so memory
+ * grows with a single entry and the first PointFeature is available as soon
+ * as its entry has been read. The features are QuakeFeatures; their
+ * property view has the same "title", "magnitude", "depth" and "age"
+ * properties as before.
+ *
+ * The reading of the feed is a Flight Recorder event (see FlightEvents)
+ * with its number of entries and bytes, when one is being recorded.
+ *
+ * @author DariuszUstrzycki
+ */
+public class EarthquakeFeedReader implements Iterator<PointFeature>, Closeable {
+
+	// time of the quake in the html summary, e.g. <dt>Time</dt><dd>2015-08-07 19:22:37 UTC</dd>
+	private static final Pattern SUMMARY_TIME = Pattern.compile("<dt>Time</dt>\\s*<dd>([^<]+) UTC</dd>");
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+	private final InputStream input;
+	private final XMLStreamReader reader;
+
+	// the feature to be returned by next(), read ahead by hasNext()
+	private PointFeature nextFeature;
+	private boolean finished = false;
+
+	// the Flight Recorder event of the feed, null if it is not recorded,
+	// and what it reports
+	private Object parseEvent;
+	private CountingInputStream counted;
+	private int entries;
+
+	public EarthquakeFeedReader(InputStream input) {
+		this(input, null);
+	}
+
+	/**
+	 * Creates a reader of the feed from the given source, a file name or
+	 * URL, which is only used to tell the feeds apart in the Flight
+	 * Recorder events.
+	 */
+	public EarthquakeFeedReader(InputStream input, String source) {
+		this.input = input;
+		this.parseEvent = FlightEvents.beginParse(source);
+		if (parseEvent != null) {
+			counted = new CountingInputStream(input);
+			input = counted;
+		}
+		try {
+			// a factory per reader, the JDK one is not safe to share across threads
+			this.reader = createFactory().createXMLStreamReader(input);
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Could not open the earthquake feed", e);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (nextFeature == null && !finished) {
+			nextFeature = readNextFeature();
+		}
+		return nextFeature != null;
+	}
+
+	@Override
+	public PointFeature next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		PointFeature feature = nextFeature;
+		nextFeature = null;
+		return feature;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		finished = true;
+		endParseEvent();
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			// nothing useful to do, the stream is closed below anyway
+		}
+		input.close();
+	}
+
+	/*
+	 * Skips to the next <entry> which has a location and turns it into a
+	 * feature. Returns null at the end of the feed.
+	 */
+	private PointFeature readNextFeature() {
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT && "entry".equals(reader.getLocalName())) {
+					PointFeature point = readEntry();
+					if (point != null) {
+						entries++;
+						return point;
+					}
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Could not read the earthquake feed", e);
+		}
+
+		finished = true;
+		endParseEvent();
+		return null;
+	}
+
+	// the event ends at the end of the feed, or when the reader is closed
+	// before it
+	private void endParseEvent() {
+		if (parseEvent != null) {
+			FlightEvents.endParse(parseEvent, entries, counted.count);
+			parseEvent = null;
+		}
+	}
+
+	/*
+	 * Reads the children of the current <entry> up to its end tag.
+	 * Returns null if the entry has no georss:point.
+	 */
+	private QuakeFeature readEntry() throws XMLStreamException {
+		String idStr = null;
+		String updatedStr = null;
+		String titleStr = null;
+		String summaryStr = null;
+		String pointStr = null;
+		String elevStr = null;
+		String ageStr = null;
+
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = reader.getLocalName();
+
+				if (depth == 1 && "id".equals(name)) {
+					idStr = reader.getElementText();
+				} else if (depth == 1 && "updated".equals(name)) {
+					updatedStr = reader.getElementText();
+				} else if (depth == 1 && "title".equals(name)) {
+					titleStr = reader.getElementText();
+				} else if (depth == 1 && "summary".equals(name)) {
+					summaryStr = reader.getElementText();
+				} else if (depth == 1 && "point".equals(name)) {
+					pointStr = reader.getElementText();
+				} else if (depth == 1 && "elev".equals(name)) {
+					elevStr = reader.getElementText();
+				} else {
+					if ("category".equals(name) && "Age".equals(reader.getAttributeValue(null, "label"))) {
+						ageStr = reader.getAttributeValue(null, "term");
+					}
+					depth++;
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+
+		// get location, skip the entry without one
+		if (pointStr == null) {
+			return null;
+		}
+		String[] latLon = pointStr.trim().split(" ");
+		float lat = Float.parseFloat(latLon[0]);
+		float lon = Float.parseFloat(latLon[1]);
+
+		// get magnitude from title
+		float magnitude = titleStr != null ? Float.parseFloat(titleStr.substring(2, 5)) : 0;
+
+		// depth(elevation), km with one decimal place
+		float depthVal = elevStr != null ? Float.parseFloat(elevStr.trim()) : 0;
+		int interVal = (int) (depthVal / 100);
+		depthVal = Math.abs((float) interVal / 10);
+
+		return new QuakeFeature(new QuakeRecord(idStr != null ? idStr.trim() : null, getUpdated(updatedStr),
+				titleStr, lat, lon, magnitude, depthVal, QuakeRecord.ageClass(ageStr),
+				getTimeFromSummary(summaryStr)));
+	}
+
+	/*
+	 * Gets the time of the last update of the entry, e.g. 2015-08-07T20:01:21.163Z
+	 */
+	private static long getUpdated(String updatedStr) {
+		if (updatedStr == null) {
+			return QuakeRecord.NO_TIME;
+		}
+		try {
+			return Instant.parse(updatedStr.trim()).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return QuakeRecord.NO_TIME;
+		}
+	}
+
+	/*
+	 * Gets the time of the quake from the html summary of the entry
+	 */
+	private static long getTimeFromSummary(String summaryStr) {
+		if (summaryStr == null) {
+			return QuakeRecord.NO_TIME;
+		}
+		Matcher matcher = SUMMARY_TIME.matcher(summaryStr);
+		if (!matcher.find()) {
+			return QuakeRecord.NO_TIME;
+		}
+		try {
+			return LocalDateTime.parse(matcher.group(1), TIME_FORMAT).toInstant(ZoneOffset.UTC).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return QuakeRecord.NO_TIME;
+		}
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+
+	/*
+	 * Counts the bytes read from a stream, for the parse event.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
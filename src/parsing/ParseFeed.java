@@ -1,6 +1,9 @@
 package parsing;
 
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -10,121 +13,69 @@ import de.fhpotsdam.unfolding.data.PointFeature;
 import de.fhpotsdam.unfolding.data.ShapeFeature;
 import de.fhpotsdam.unfolding.geo.Location;
 import processing.core.PApplet;
-import processing.data.XML;
 
 public class ParseFeed {
 
 
 	/*
 	 * This method is to parse a GeoRSS feed corresponding to earthquakes around
-	 * the globe.
+	 * the globe. The feed is read with a streaming EarthquakeFeedReader, one
+	 * entry at a time.
 	 * 
 	 * @param p - PApplet being used
 	 * @param fileName - file name or URL for data source
 	 */
 	public static List<PointFeature> parseEarthquake(PApplet p, String fileName) {
-		List<PointFeature> features = new ArrayList<PointFeature>();
-
-		XML rss = p.loadXML(fileName);
-		// Get all items
-		XML[] itemXML = rss.getChildren("entry");
-		PointFeature point;
-		
-		for (int i = 0; i < itemXML.length; i++) {
-			
-				// get location and create feature
-				Location location = getLocationFromPoint(itemXML[i]);
-				
-				// if successful create PointFeature and add to list
-				if( location != null) {
-					point = new PointFeature(location);
-					features.add(point);
-				}
-				else {
-					continue;
-				}
-
-				// Sets title if existing
-				String titleStr = getStringVal(itemXML[i], "title");
-				if (titleStr != null) {
-					point.putProperty("title", titleStr);
-					// get magnitude from title
-					point.putProperty("magnitude", Float.parseFloat(titleStr.substring(2, 5)));
-				}
-
-				// Sets depth(elevation) if existing
-				float depthVal = getFloatVal(itemXML[i], "georss:elev");
-				
-				// NOT SURE ABOUT CHECKING ERR CONDITION BECAUSE 0 COULD BE VALID?
-				// get one decimal place when converting to km
-				int interVal = (int)(depthVal/100);
-				depthVal = (float) interVal/10;
-				point.putProperty("depth", Math.abs((depthVal)));
-				
-
-				// Sets age if existing
-				XML[] catXML = itemXML[i].getChildren("category");
-				for (int c = 0; c < catXML.length; c++) {
-					String label = catXML[c].getString("label");
-					if ("Age".equals(label)) {
-						String ageStr = catXML[c].getString("term");
-						point.putProperty("age", ageStr);
-					}
-				}
-		
-
-			}
-		
-			return features;
-		}
+		return collect(streamEarthquakes(p, fileName));
+	}
 
-	
 	/*
-	 * Gets location from georss:point tag
+	 * Parses an earthquake GeoRSS feed from an already opened stream.
+	 * The stream is closed when the whole feed has been read.
 	 * 
-	 * @param XML Node which has point as child
-	 * 
-	 * @return Location object corresponding to point
+	 * @param input - stream with the feed
 	 */
-	private static Location getLocationFromPoint(XML itemXML) {
-		// set loc to null in case of failure
-		Location loc = null;
-		XML pointXML = itemXML.getChild("georss:point");
-		
-		// set location if existing
-		if (pointXML != null && pointXML.getContent() != null) {
-			String pointStr = pointXML.getContent();
-			String[] latLon = pointStr.split(" ");
-			float lat = Float.valueOf(latLon[0]);
-			float lon = Float.valueOf(latLon[1]);
+	public static List<PointFeature> parseEarthquake(InputStream input) {
+		return collect(new EarthquakeFeedReader(input));
+	}
 
-			loc = new Location(lat, lon);
-		}
-		
-		return loc;
-	}	
-	
 	/*
-	 * Get String content from child node.
+	 * Opens an earthquake GeoRSS feed for streaming. Features can be taken
+	 * from the returned reader as soon as their entries are read,
+	 * without waiting for the rest of the feed.
+	 * 
+	 * @param p - PApplet being used
+	 * @param fileName - file name or URL for data source
 	 */
-	private static String getStringVal(XML itemXML, String tagName) {
-		// Sets title if existing
-		String str = null;
-		XML strXML = itemXML.getChild(tagName);
-		
-		// check if node exists and has content
-		if (strXML != null && strXML.getContent() != null) {
-			str = strXML.getContent();
+	public static EarthquakeFeedReader streamEarthquakes(PApplet p, String fileName) {
+		InputStream input = p.createInput(fileName);
+		if (input == null) {
+			throw new IllegalArgumentException("Could not open earthquake feed: " + fileName);
 		}
-		
-		return str;
+		return new EarthquakeFeedReader(input, fileName);
 	}
-	
+
 	/*
-	 * Get float value from child node
+	 * Reads all features from the reader and closes it.
 	 */
-	private static float getFloatVal(XML itemXML, String tagName) {
-		return Float.parseFloat(getStringVal(itemXML, tagName));
+	private static List<PointFeature> collect(EarthquakeFeedReader reader) {
+		List<PointFeature> features = new ArrayList<PointFeature>();
+		try {
+			while (reader.hasNext()) {
+				features.add(reader.next());
+			}
+		} finally {
+			closeQuietly(reader);
+		}
+		return features;
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// the data has already been read
+		}
 	}
 	
 
@@ -0,0 +1,117 @@
+package parsing;
+
+import java.util.HashMap;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+
+/**
+ * PointFeature of an earthquake backed by a QuakeRecord.
+ *
+ * The property map is only a compatibility view: it is built from the
+ * record the first time somebody asks for it. The "country" property set
+ * by the land/ocean check is kept in a field, so setting it does not build
+ * the map either.
+ *
+ * @author DariuszUstrzycki
+ */
+public class QuakeFeature extends PointFeature {
+
+	private final QuakeRecord record;
+	private String country;
+
+	// whether the properties field holds the view of the record
+	private boolean propertiesBuilt = false;
+
+	public QuakeFeature(QuakeRecord record) {
+		super(new Location(record.getLatitude(), record.getLongitude()));
+		this.record = record;
+		this.properties = null;
+		setId(record.getId());
+	}
+
+	/**
+	 * Returns the feature itself if it already is a QuakeFeature, otherwise
+	 * builds a record from the properties of the feature.
+	 */
+	public static QuakeFeature of(PointFeature feature) {
+		if (feature instanceof QuakeFeature) {
+			return (QuakeFeature) feature;
+		}
+
+		Location location = feature.getLocation();
+		QuakeFeature quake = new QuakeFeature(
+				QuakeRecord.fromProperties(location.getLat(), location.getLon(), feature.getProperties()));
+		quake.setProperties(feature.getProperties());
+		return quake;
+	}
+
+	public QuakeRecord getRecord() {
+		return record;
+	}
+
+	public String getCountry() {
+		return country;
+	}
+
+	public void setCountry(String country) {
+		this.country = country;
+		if (propertiesBuilt) {
+			properties.put("country", country);
+		}
+	}
+
+	@Override
+	public HashMap<String, Object> getProperties() {
+		if (!propertiesBuilt) {
+			properties = record.toProperties();
+			if (country != null) {
+				properties.put("country", country);
+			}
+			propertiesBuilt = true;
+		}
+		return properties;
+	}
+
+	@Override
+	public void setProperties(HashMap<String, Object> properties) {
+		this.properties = properties;
+		propertiesBuilt = true;
+		Object countryValue = properties.get("country");
+		country = countryValue != null ? countryValue.toString() : null;
+	}
+
+	@Override
+	public Object getProperty(String key) {
+		return getProperties().get(key);
+	}
+
+	@Override
+	public String getStringProperty(String key) {
+		Object value = getProperty(key);
+		return value instanceof String ? (String) value : null;
+	}
+
+	@Override
+	public Integer getIntegerProperty(String key) {
+		Object value = getProperty(key);
+		return value instanceof Integer ? (Integer) value : null;
+	}
+
+	@Override
+	public Object addProperty(String key, Object value) {
+		if ("country".equals(key)) {
+			String previous = country;
+			country = value != null ? value.toString() : null;
+			if (!propertiesBuilt) {
+				return previous;
+			}
+		}
+		return getProperties().put(key, value);
+	}
+
+	@Override
+	public void putProperty(String key, Object value) {
+		addProperty(key, value);
+	}
+}
@@ -0,0 +1,171 @@
+package parsing;
+
+import java.util.HashMap;
+
+/**
+ * Compact typed data of a single earthquake, built once by the parser.
+ *
+ * The markers read magnitude, depth and age from here on every frame and
+ * every sort, so everything they need is kept as primitives and the threat
+ * radius is computed up front. The property map of the old PointFeatures
+ * can still be produced with toProperties().
+ *
+ * @author DariuszUstrzycki
+ */
+public final class QuakeRecord {
+
+	/** Age classes used by the USGS feed in its "Age" category */
+	public static final byte AGE_UNKNOWN = -1;
+	public static final byte AGE_PAST_HOUR = 0;
+	public static final byte AGE_PAST_DAY = 1;
+	public static final byte AGE_PAST_WEEK = 2;
+	public static final byte AGE_PAST_MONTH = 3;
+
+	private static final String[] AGE_TERMS = { "Past Hour", "Past Day", "Past Week", "Past Month" };
+
+	/** Value of the time field when the feed did not give the time of the quake */
+	public static final long NO_TIME = Long.MIN_VALUE;
+
+	private static final float KM_PER_MILE = 1.6f;
+
+	private final String id;
+	private final long updated;
+	private final String title;
+	private final float latitude;
+	private final float longitude;
+	private final float magnitude;
+	private final float depth;
+	private final byte age;
+	private final long time;
+	private final double threatRadius;
+
+	public QuakeRecord(String title, float latitude, float longitude, float magnitude, float depth, byte age,
+			long time) {
+		this(null, NO_TIME, title, latitude, longitude, magnitude, depth, age, time);
+	}
+
+	/**
+	 * Creates the record of a feed entry with the given event id and time
+	 * of its last update.
+	 */
+	public QuakeRecord(String id, long updated, String title, float latitude, float longitude, float magnitude,
+			float depth, byte age, long time) {
+		this.id = id;
+		this.updated = updated;
+		this.title = title;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.magnitude = magnitude;
+		this.depth = depth;
+		this.age = age;
+		this.time = time;
+		this.threatRadius = threatCircle(magnitude);
+	}
+
+	/**
+	 * Return the "threat circle" radius in km, or distance up to which an
+	 * earthquake of the given magnitude can affect things.
+	 * DISCLAIMER: this formula is for illustration purposes
+	 *  only and is not intended to be used for safety-critical
+	 *  or predictive applications.
+	 */
+	public static double threatCircle(float magnitude) {
+		double miles = 20.0f * Math.pow(1.8, 2 * magnitude - 5);
+		return miles * KM_PER_MILE;
+	}
+
+	/**
+	 * Converts the term of the feed's "Age" category to one of the AGE_
+	 * constants.
+	 */
+	public static byte ageClass(String term) {
+		for (byte i = 0; i < AGE_TERMS.length; i++) {
+			if (AGE_TERMS[i].equals(term)) {
+				return i;
+			}
+		}
+		return AGE_UNKNOWN;
+	}
+
+	/**
+	 * Builds a record from the properties used by the old parser
+	 * ("title", "magnitude", "depth" and "age").
+	 */
+	public static QuakeRecord fromProperties(float latitude, float longitude, HashMap<String, Object> properties) {
+		Object title = properties.get("title");
+		Object magnitude = properties.get("magnitude");
+		Object depth = properties.get("depth");
+		Object age = properties.get("age");
+
+		return new QuakeRecord(title != null ? title.toString() : null, latitude, longitude,
+				magnitude != null ? Float.parseFloat(magnitude.toString()) : 0,
+				depth != null ? Float.parseFloat(depth.toString()) : 0,
+				age != null ? ageClass(age.toString()) : AGE_UNKNOWN, NO_TIME);
+	}
+
+	/**
+	 * Creates the property map the old parser used to fill in. The map is
+	 * new on every call.
+	 */
+	public HashMap<String, Object> toProperties() {
+		HashMap<String, Object> properties = new HashMap<String, Object>();
+		if (title != null) {
+			properties.put("title", title);
+			properties.put("magnitude", magnitude);
+		}
+		properties.put("depth", depth);
+		if (age != AGE_UNKNOWN) {
+			properties.put("age", AGE_TERMS[age]);
+		}
+		return properties;
+	}
+
+	/** The USGS event id of the feed entry, or null */
+	public String getId() {
+		return id;
+	}
+
+	/** When the feed entry was last updated, in milliseconds since the epoch, or NO_TIME */
+	public long getUpdated() {
+		return updated;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public float getLatitude() {
+		return latitude;
+	}
+
+	public float getLongitude() {
+		return longitude;
+	}
+
+	public float getMagnitude() {
+		return magnitude;
+	}
+
+	public float getDepth() {
+		return depth;
+	}
+
+	public byte getAge() {
+		return age;
+	}
+
+	// Did the quake happen within the past day?
+	public boolean isRecent() {
+		return age == AGE_PAST_HOUR || age == AGE_PAST_DAY;
+	}
+
+	/** Time of the quake in milliseconds since the epoch, or NO_TIME */
+	public long getTime() {
+		return time;
+	}
+
+	/** The threat circle radius in km, see threatCircle(float) */
+	public double getThreatRadius() {
+		return threatRadius;
+	}
+}